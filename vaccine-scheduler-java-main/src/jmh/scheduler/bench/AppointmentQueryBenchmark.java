@@ -0,0 +1,167 @@
+package scheduler.bench;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Latency of the scheduler's hot Appointments/Availabilities queries with and without the
+ * covering indexes from migrations/003_availability_slots.sql.
+ *
+ * Seeds a large synthetic history (1M appointments by default) with set-based inserts, runs every
+ * query with the indexes disabled and again after rebuilding them, and prints one line per query
+ * and phase. The seeded rows are removed afterwards unless --keep is given.
+ *
+ * usage: gradle bench -Pmain=AppointmentQueryBenchmark -Pargs="[appointments] [samples] [--keep]"
+ */
+public class AppointmentQueryBenchmark {
+
+    private static final String PREFIX = "bench_";
+    private static final String VACCINE = PREFIX + "vaccine";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2100, 1, 1);
+    private static final int CAREGIVERS = 2_000;
+    private static final int PATIENTS = 50_000;
+    private static final String[] INDEXES = {
+            "IX_Appointments_Caregiver ON Appointments",
+            "IX_Appointments_Patient ON Appointments",
+            "IX_Appointments_Time ON Appointments",
+    };
+
+    private static final String FIRST_FREE_CAREGIVER =
+            "SELECT TOP (1) Username FROM Availabilities WHERE Time = ? ORDER BY Username";
+    private static final String CAREGIVER_APPOINTMENTS =
+            "SELECT AppointmentID, VaccineName, Time, p.Username FROM Appointments a " +
+            "JOIN Patients p ON a.PatientUsername = p.Username WHERE CaregiverUsername = ? ORDER BY AppointmentID";
+    private static final String PATIENT_APPOINTMENTS =
+            "SELECT AppointmentID, VaccineName, Time, c.Username FROM Appointments a " +
+            "JOIN Caregivers c ON a.CaregiverUsername = c.Username WHERE PatientUsername = ? ORDER BY AppointmentID";
+    private static final String CAREGIVER_BOOKED_ON_DATE =
+            "SELECT COUNT(*) FROM Appointments WHERE Time = ? AND CaregiverUsername = ?";
+
+    public static void main(String[] args) throws SQLException {
+        int appointments = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        boolean keep = Arrays.asList(args).contains("--keep");
+        int days = Math.max(1, appointments / CAREGIVERS);
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            long seedStart = System.nanoTime();
+            cleanUp(con);
+            seed(con, appointments, days);
+            System.out.println("seeded appointments=" + appointments + " days=" + days
+                    + " seconds=" + (System.nanoTime() - seedStart) / 1_000_000_000);
+
+            setIndexes(con, "DISABLE");
+            runAll(con, "without_indexes", samples, days);
+            setIndexes(con, "REBUILD");
+            runAll(con, "with_indexes", samples, days);
+        } finally {
+            try {
+                setIndexes(con, "REBUILD");
+                if (!keep) {
+                    cleanUp(con);
+                }
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+
+    private static void runAll(Connection con, String phase, int samples, int days) throws SQLException {
+        Random random = new Random(42);
+        measure(con, phase, "first_free_caregiver", FIRST_FREE_CAREGIVER, samples, (statement) ->
+                statement.setDate(1, day(random.nextInt(days))));
+        measure(con, phase, "show_appointments_caregiver", CAREGIVER_APPOINTMENTS, samples, (statement) ->
+                statement.setString(1, PREFIX + "c" + random.nextInt(CAREGIVERS)));
+        measure(con, phase, "show_appointments_patient", PATIENT_APPOINTMENTS, samples, (statement) ->
+                statement.setString(1, PREFIX + "p" + random.nextInt(PATIENTS)));
+        measure(con, phase, "caregiver_booked_on_date", CAREGIVER_BOOKED_ON_DATE, samples, (statement) -> {
+            statement.setDate(1, day(random.nextInt(days)));
+            statement.setString(2, PREFIX + "c" + random.nextInt(CAREGIVERS));
+        });
+    }
+
+    private static void measure(Connection con, String phase, String name, String query, int samples,
+                                Binder binder) throws SQLException {
+        long[] micros = new long[samples];
+        try (PreparedStatement statement = con.prepareStatement(query)) {
+            for (int i = 0; i < samples; i++) {
+                binder.bind(statement);
+                long start = System.nanoTime();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        // drain the result like the commands do
+                    }
+                }
+                micros[i] = (System.nanoTime() - start) / 1_000;
+            }
+        }
+        Arrays.sort(micros);
+        System.out.println(String.format("phase=%s query=%s samples=%d p50_us=%d p95_us=%d p99_us=%d max_us=%d",
+                phase, name, samples, percentile(micros, 50), percentile(micros, 95), percentile(micros, 99),
+                micros[micros.length - 1]));
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)];
+    }
+
+    private static Date day(int offset) {
+        return Date.valueOf(FIRST_DAY.plusDays(offset));
+    }
+
+    private static void seed(Connection con, int appointments, int days) throws SQLException {
+        String numbers = ";WITH n AS (SELECT TOP (?) ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) - 1 AS i " +
+                "FROM sys.all_objects a CROSS JOIN sys.all_objects b CROSS JOIN sys.all_objects c) ";
+        execute(con, numbers + "INSERT INTO Caregivers (Username, Salt, Hash) " +
+                "SELECT CONCAT('" + PREFIX + "c', i), 0x00, 0x00 FROM n", CAREGIVERS);
+        execute(con, numbers + "INSERT INTO Patients (Username, Salt, Hash) " +
+                "SELECT CONCAT('" + PREFIX + "p', i), 0x00, 0x00 FROM n", PATIENTS);
+        execute(con, "INSERT INTO Vaccines (Name, Doses) VALUES ('" + VACCINE + "', 0)");
+        // every caregiver works every day; each appointment is one caregiver-day
+        execute(con, numbers + "INSERT INTO Appointments (Time, PatientUsername, CaregiverUsername, VaccineName) " +
+                "SELECT DATEADD(day, i / " + CAREGIVERS + ", '" + FIRST_DAY + "'), " +
+                "CONCAT('" + PREFIX + "p', i % " + PATIENTS + "), CONCAT('" + PREFIX + "c', i % " + CAREGIVERS + "), " +
+                "'" + VACCINE + "' FROM n", appointments);
+        // and has one free slot on the day after the booked history
+        execute(con, "INSERT INTO Availabilities (Time, Username) " +
+                "SELECT DATEADD(day, " + days + ", '" + FIRST_DAY + "'), Username FROM Caregivers " +
+                "WHERE Username LIKE '" + PREFIX + "c%'");
+    }
+
+    private static void setIndexes(Connection con, String action) throws SQLException {
+        for (String index : INDEXES) {
+            execute(con, "ALTER INDEX " + index + " " + action);
+        }
+    }
+
+    private static void cleanUp(Connection con) throws SQLException {
+        execute(con, "DELETE FROM Appointments WHERE VaccineName = '" + VACCINE + "'");
+        execute(con, "DELETE FROM Availabilities WHERE Username LIKE '" + PREFIX + "%'");
+        execute(con, "DELETE FROM Vaccines WHERE Name = '" + VACCINE + "'");
+        execute(con, "DELETE FROM Caregivers WHERE Username LIKE '" + PREFIX + "%'");
+        execute(con, "DELETE FROM Patients WHERE Username LIKE '" + PREFIX + "%'");
+    }
+
+    private static void execute(Connection con, String sql, int... params) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                statement.setInt(i + 1, params[i]);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+}
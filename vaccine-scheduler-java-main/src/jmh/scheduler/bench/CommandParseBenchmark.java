@@ -0,0 +1,80 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Command lines parsed per second: String.split(" ") against Scheduler.tokenize, and a whole
+ * Scheduler.execute (tokenize, command table lookup, arity check) for a line that fails the arity
+ * check, so no handler or store work is included.
+ *
+ * usage: gradle bench -Pmain=CommandParseBenchmark -Pargs="[seconds]"
+ */
+public class CommandParseBenchmark {
+
+    private static final String[] LINES = {
+            "login_patient bench_patient Str0ng!Passw0rd",
+            "search_caregiver_schedule 2030-01-01 2030-01-31",
+            "reserve 2030-01-15 pfizer",
+            "show_appointments --from-date 2030-01-01 --limit 20 --after-id 1200",
+            "add_doses pfizer 100 moderna 50 janssen 25",
+            "upload_availability_range   2030-01-01  2030-03-31   mon,wed,fri",
+    };
+
+    private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    // results are folded in here so the JIT cannot drop the measured calls
+    private static volatile int sink;
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        Session session = new Session(DISCARD);
+
+        Operation split = line -> line.split(" ").length;
+        Operation tokenize = line -> Scheduler.tokenize(line).length;
+        // one argument too many, so the command is rejected before its handler runs
+        Operation execute = line -> Scheduler.execute(session, "reserve " + line) ? 1 : 0;
+
+        // warm up every path so the JIT has compiled them before we measure
+        run(split, 1);
+        run(tokenize, 1);
+        run(execute, 1);
+        report("split", run(split, seconds), seconds);
+        report("tokenize", run(tokenize, seconds), seconds);
+        report("execute", run(execute, seconds), seconds);
+    }
+
+    private static long run(Operation operation, int seconds) {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long lines = 0;
+        int folded = 0;
+        while (System.nanoTime() < deadline) {
+            // check the clock once per round of lines rather than per line
+            for (String line : LINES) {
+                folded ^= operation.parse(line);
+            }
+            lines += LINES.length;
+        }
+        sink ^= folded;
+        return lines;
+    }
+
+    private static void report(String name, long lines, int seconds) {
+        System.out.println(String.format("%-8s %14.1f lines/s", name, lines / (double) seconds));
+    }
+
+    private interface Operation {
+        int parse(String line);
+    }
+}
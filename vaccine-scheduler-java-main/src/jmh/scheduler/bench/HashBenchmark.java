@@ -0,0 +1,63 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.PasswordHasher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of PasswordHasher.hash and verify, in ops/sec over all benchmark threads.
+ *
+ * Run it once with a single thread and once with one thread per core to see how well hashing
+ * scales; with per-thread engines the score divided by the thread count should stay roughly flat:
+ *
+ *   gradle jmh -Pjmh="HashBenchmark -t 1"
+ *   gradle jmh -Pjmh="HashBenchmark -t max -p iterations=10000,100000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    private static final String PASSWORD = "Str0ng!Passw0rd";
+
+    @Param({"10000"})
+    public int iterations;
+
+    private PasswordHasher hasher;
+    private byte[] salt;
+    private byte[] stored;
+
+    @Setup
+    public void setUp() {
+        hasher = new PasswordHasher(iterations);
+        salt = hasher.generateSalt();
+        stored = hasher.hash(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public byte[] hash() {
+        return hasher.hash(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        if (!hasher.verify(PASSWORD, salt, stored)) {
+            throw new IllegalStateException("verify failed");
+        }
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.model.Patient;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.ReservationService;
+import scheduler.service.ScheduleView;
+import scheduler.store.AccountType;
+import scheduler.store.Credentials;
+import scheduler.store.MemoryStore;
+import scheduler.store.Reservation;
+import scheduler.store.Slot;
+import scheduler.store.Stores;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time per operation of the scheduler's hot paths, for comparing releases.
+ *
+ * Every command benchmark runs against a fresh MemoryStore seeded with the given number of
+ * appointments (1,000 caregivers, 1,000 patients and one vaccine, one appointment per
+ * caregiver-day), so results do not depend on a database server. reserve is timed per day booked:
+ * each measured batch opens a new day and books all of its CAREGIVERS slots.
+ *
+ * Run it through the jmh task with the data sizes to compare; JMH's json result format can be
+ * diffed or joined on (benchmark, appointments) between releases:
+ *
+ *   gradle jmh -Pjmh="HotPathBenchmark -p appointments=1000,100000,1000000 -rf json -rff results.json"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathBenchmark {
+
+    private static final int CAREGIVERS = 1_000;
+    private static final int PATIENTS = 1_000;
+    private static final String VACCINE = "bench_vaccine";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2000, 1, 1);
+    // caregivers are only free in the first slot of each day, so sizes stay one appointment per
+    // caregiver-day
+    private static final long FIRST_SLOT = Slot.range(0, 1);
+    private static final String PASSWORD = "Str0ng!Passw0rd";
+
+    private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    @Param({"1000", "100000"})
+    public int appointments;
+
+    private MemoryStore store;
+    private Session session;
+    private String searchLine;
+    private ReservationService service;
+    private byte[] salt;
+    private byte[] padded;
+    // the next day opened for reserve, and how many of its slots have been booked
+    private int openDay;
+    private int reserved;
+
+    @Setup(Level.Trial)
+    public void seed() throws SQLException {
+        salt = Util.generateSalt();
+        padded = new byte[64];
+        System.arraycopy(Util.generateHash(PASSWORD, salt), 0, padded, 0, 21);
+
+        store = seed(appointments);
+        Stores.set(store);
+        AvailabilityIndex.getInstance().reload();
+        ScheduleView.getInstance().reload();
+
+        session = new Session(DISCARD);
+        session.setCurrentPatient(new Patient.PatientBuilder("bench_p0", new byte[0], new byte[0]).build());
+        searchLine = "search_caregiver_schedule " + FIRST_DAY.plusDays(days(appointments) / 2);
+        service = new ReservationService();
+        openDay = days(appointments);
+    }
+
+    // every reserve batch needs a day with a free slot for each of its reservations
+    @Setup(Level.Iteration)
+    public void openDay() throws SQLException {
+        SortedSet<Date> day = new TreeSet<>(Collections.singleton(Date.valueOf(FIRST_DAY.plusDays(openDay++))));
+        for (int c = 0; c < CAREGIVERS; c++) {
+            store.addAvailability("bench_c" + c, day, FIRST_SLOT);
+        }
+        store.addDoses(VACCINE, CAREGIVERS);
+        AvailabilityIndex.getInstance().reload(day.first());
+        reserved = 0;
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public byte[] trim() {
+        return Util.trim(padded);
+    }
+
+    @Benchmark
+    public boolean parseCommand() {
+        return Scheduler.execute(session, "no_such_command a b");
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule() {
+        return Scheduler.execute(session, searchLine);
+    }
+
+    @Benchmark
+    public boolean showAppointments() {
+        return Scheduler.execute(session, "show_appointments --limit 10");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = CAREGIVERS)
+    @Measurement(iterations = 5, batchSize = CAREGIVERS)
+    public Reservation reserve() throws SQLException {
+        Date day = Date.valueOf(FIRST_DAY.plusDays(openDay - 1));
+        Reservation reservation = service.reserve("bench_p" + reserved++ % PATIENTS, day, VACCINE);
+        if (!reservation.isReserved()) {
+            throw new IllegalStateException("reserve failed on " + day);
+        }
+        return reservation;
+    }
+
+    private static int days(int appointments) {
+        return Math.max(1, (appointments + CAREGIVERS - 1) / CAREGIVERS);
+    }
+
+    // books the appointments through the store's own API so the fixture obeys the same rules
+    private static MemoryStore seed(int appointments) throws SQLException {
+        MemoryStore store = new MemoryStore();
+        int days = days(appointments);
+        SortedSet<Date> dates = new TreeSet<>();
+        for (int d = 0; d < days; d++) {
+            dates.add(Date.valueOf(FIRST_DAY.plusDays(d)));
+        }
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        for (int c = 0; c < CAREGIVERS; c++) {
+            store.insertAccount(AccountType.CAREGIVER, new Credentials("bench_c" + c, salt, hash));
+            store.addAvailability("bench_c" + c, dates, FIRST_SLOT);
+        }
+        for (int p = 0; p < PATIENTS; p++) {
+            store.insertAccount(AccountType.PATIENT, new Credentials("bench_p" + p, salt, hash));
+        }
+        store.insertVaccine(VACCINE, appointments);
+        for (int i = 0; i < appointments; i++) {
+            Date day = Date.valueOf(FIRST_DAY.plusDays(i / CAREGIVERS));
+            store.reserve("bench_p" + i % PATIENTS, day, 0, VACCINE, "bench_c" + i % CAREGIVERS);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,206 @@
+package scheduler.bench;
+
+import scheduler.model.Appointment;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.BatchAllocator;
+import scheduler.service.ReservationService;
+import scheduler.store.AccountType;
+import scheduler.store.Credentials;
+import scheduler.store.SchedulerStore;
+import scheduler.store.Slot;
+import scheduler.store.Stores;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reservation throughput on mass-vaccination days, booked one at a time versus through a
+ * BatchAllocator.
+ *
+ * For each mode a fresh set of caregivers (free on every event day), patients and a vaccine with
+ * a dose for everyone is created in the configured store (the Store environment variable). Then,
+ * day after day, all of that day's patients reserve the same date at once from a pool of threads.
+ * Prints one JSON object per mode:
+ *
+ *   {"benchmark":"reserve_batch","reservations":750,"unit":"reservations/s","score":5120.4,
+ *    "reserved":750,"loadSpread":1}
+ *
+ * loadSpread is the difference between the most and the least booked caregiver over all event
+ * days; booked one at a time, the alphabetically first caregivers take every day's patients.
+ * Appointments and slots are cancelled afterwards, which leaves the accounts and the vaccine with
+ * no doses behind.
+ *
+ * usage: gradle bench -Pmain=MassEventBenchmark -Pargs="[--caregivers 200] [--patients 150]
+ *        [--days 5] [--threads 64] [--window 5] [--batch 256] [--out file]"
+ */
+public class MassEventBenchmark {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2998, 1, 1);
+
+    private final int caregivers;
+    private final int patientsPerDay;
+    private final int days;
+    private final int threads;
+    private final String run = Long.toString(System.currentTimeMillis(), 36);
+
+    private MassEventBenchmark(int caregivers, int patientsPerDay, int days, int threads) {
+        this.caregivers = caregivers;
+        this.patientsPerDay = patientsPerDay;
+        this.days = days;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int caregivers = 200;
+        int patients = 150;
+        int days = 5;
+        int threads = 64;
+        long window = 5;
+        int batch = 256;
+        String out = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--caregivers":
+                    caregivers = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--patients":
+                    patients = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--days":
+                    days = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--window":
+                    window = Long.parseLong(args[i + 1]);
+                    break;
+                case "--batch":
+                    batch = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--out":
+                    out = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        MassEventBenchmark benchmark = new MassEventBenchmark(caregivers, patients, days, threads);
+        try (PrintStream results = out == null ? new PrintStream(System.out, true)
+                : new PrintStream(new FileOutputStream(out), true)) {
+            benchmark.measure("reserve_single", new ReservationService(null), results);
+            benchmark.measure("reserve_batch", new ReservationService(new BatchAllocator(window, batch)), results);
+        }
+        System.exit(0);
+    }
+
+    private void measure(String name, ReservationService service, PrintStream results) throws Exception {
+        SchedulerStore store = Stores.get();
+        String prefix = "event_" + run + "_" + name + "_";
+        String vaccine = prefix + "vaccine";
+        seed(store, prefix, vaccine);
+        AvailabilityIndex.getInstance().reload();
+
+        AtomicInteger reserved = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long elapsed = 0;
+        try {
+            for (int d = 0; d < days; d++) {
+                Date date = day(d);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int p = 0; p < patientsPerDay; p++) {
+                    String patient = prefix + "p" + (d * patientsPerDay + p);
+                    futures.add(pool.submit(() -> {
+                        start.await();
+                        if (service.reserve(patient, date, vaccine).isReserved()) {
+                            reserved.incrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+                long begin = System.nanoTime();
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                elapsed += System.nanoTime() - begin;
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        int most = 0;
+        int least = Integer.MAX_VALUE;
+        for (int c = 0; c < caregivers; c++) {
+            int booked = 0;
+            try (Appointment.AppointmentCursor cursor =
+                         store.findAppointments(AccountType.CAREGIVER, prefix + "c" + c, null, 0, 0, 0)) {
+                while (cursor.hasNext()) {
+                    cursor.next();
+                    booked++;
+                }
+            }
+            most = Math.max(most, booked);
+            least = Math.min(least, booked);
+        }
+        cleanUp(store, prefix, vaccine);
+
+        int reservations = days * patientsPerDay;
+        results.println(String.format(Locale.ROOT,
+                "{\"benchmark\":\"%s\",\"reservations\":%d,\"unit\":\"reservations/s\",\"score\":%.1f,"
+                        + "\"reserved\":%d,\"loadSpread\":%d}",
+                name, reservations, reservations / (elapsed / 1e9), reserved.get(), most - least));
+    }
+
+    private void seed(SchedulerStore store, String prefix, String vaccine) throws SQLException {
+        byte[] filler = new byte[16];
+        List<Credentials> accounts = new ArrayList<>();
+        for (int c = 0; c < caregivers; c++) {
+            accounts.add(new Credentials(prefix + "c" + c, filler, filler));
+        }
+        store.insertAccounts(AccountType.CAREGIVER, accounts);
+        accounts.clear();
+        for (int p = 0; p < days * patientsPerDay; p++) {
+            accounts.add(new Credentials(prefix + "p" + p, filler, filler));
+        }
+        store.insertAccounts(AccountType.PATIENT, accounts);
+        SortedSet<Date> dates = new TreeSet<>();
+        for (int d = 0; d < days; d++) {
+            dates.add(day(d));
+        }
+        for (int c = 0; c < caregivers; c++) {
+            store.addAvailability(prefix + "c" + c, dates, Slot.WHOLE_DAY);
+        }
+        store.insertVaccine(vaccine, days * patientsPerDay);
+    }
+
+    private void cleanUp(SchedulerStore store, String prefix, String vaccine) throws SQLException {
+        for (int c = 0; c < caregivers; c++) {
+            for (int d = 0; d < days; d++) {
+                store.cancelCaregiverDay(prefix + "c" + c, day(d));
+            }
+        }
+        int left = store.availableDoses(vaccine);
+        if (left > 0) {
+            store.takeDoses(vaccine, left);
+        }
+    }
+
+    private static Date day(int d) {
+        return Date.valueOf(FIRST_DAY.plusDays(d));
+    }
+}
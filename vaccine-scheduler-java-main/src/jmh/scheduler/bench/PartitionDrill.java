@@ -0,0 +1,285 @@
+package scheduler.bench;
+
+import scheduler.model.Appointment;
+import scheduler.store.AccountType;
+import scheduler.store.Credentials;
+import scheduler.store.MemoryStore;
+import scheduler.store.OfflineStore;
+import scheduler.store.SchedulerStore;
+import scheduler.store.Slot;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Partition drill for offline mode (OfflineStore).
+ *
+ * A MemoryStore stands in for the central database. Several clinics run offline against it through
+ * links that can be cut: every round all links go down, each clinic creates patients, reserves and
+ * cancels appointments, receives doses and uploads or withdraws availability on its own, then the
+ * links come back and the clinics sync one after the other. Some syncs are cut off again after a
+ * random number of calls, so batches are resent and partly applied deltas must be skipped.
+ *
+ * Links fail before a call reaches the database, as a refused connection does. After the last
+ * round the drill checks the central database: no caregiver slot booked twice or both booked and free,
+ * doses never negative and every received dose counted exactly once, and every clinic back in
+ * step with it.
+ *
+ * usage: gradle bench -Pmain=PartitionDrill -Pargs="[clinics] [rounds] [seed]"
+ * exits with status 1 if any invariant is violated.
+ */
+public class PartitionDrill {
+
+    private static final String VACCINE = "drill_vaccine";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2100, 1, 1);
+    private static final int DAYS = 5;
+    private static final int CAREGIVERS = 6;
+    // caregivers only work the first few slots of a day, so clinics keep competing for them
+    private static final int SLOTS = 2;
+    private static final int INITIAL_DOSES = 20;
+    private static final int OPERATIONS_PER_ROUND = 25;
+
+    public static void main(String[] args) throws Exception {
+        int clinicCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        Random random = new Random(seed);
+
+        MemoryStore central = new MemoryStore();
+        byte[] filler = new byte[16];
+        for (int c = 0; c < CAREGIVERS; c++) {
+            central.insertAccount(AccountType.CAREGIVER, new Credentials(caregiver(c), filler, filler));
+            TreeSet<Date> dates = new TreeSet<>();
+            for (int d = 0; d < DAYS; d++) {
+                dates.add(day(d));
+            }
+            central.addAvailability(caregiver(c), dates, Slot.range(0, SLOTS));
+        }
+        central.insertVaccine(VACCINE, INITIAL_DOSES);
+
+        AtomicInteger conflicts = new AtomicInteger();
+        List<Link> links = new ArrayList<>();
+        List<OfflineStore> clinics = new ArrayList<>();
+        for (int k = 0; k < clinicCount; k++) {
+            Link link = new Link(central);
+            links.add(link);
+            // no background thread: the drill decides when each clinic syncs
+            OfflineStore clinic = new OfflineStore(new MemoryStore(), link.proxy(), 8, Long.MAX_VALUE,
+                    message -> conflicts.incrementAndGet());
+            clinic.sync();
+            clinics.add(clinic);
+        }
+
+        Set<String> patients = new HashSet<>();
+        int receivedDoses = 0;
+        int operations = 0;
+        int cutSyncs = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (Link link : links) {
+                link.up = false;
+            }
+            for (int k = 0; k < clinicCount; k++) {
+                SchedulerStore clinic = clinics.get(k);
+                for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+                    receivedDoses += operate(clinic, k, round, random, patients);
+                    operations++;
+                }
+            }
+            for (int k = 0; k < clinicCount; k++) {
+                Link link = links.get(k);
+                link.up = true;
+                if (random.nextInt(3) == 0) {
+                    link.callsLeft = random.nextInt(20);
+                    cutSyncs++;
+                }
+                while (!clinics.get(k).sync()) {
+                    link.up = true;
+                    link.callsLeft = -1;
+                }
+                // a cut that the sync finished before would otherwise hit the next round's first sync
+                link.callsLeft = -1;
+            }
+        }
+        // a last pass so that clinics synced early also see what later ones changed
+        for (OfflineStore clinic : clinics) {
+            clinic.sync();
+        }
+
+        int doses = central.availableDoses(VACCINE);
+        // "date time caregiver" of every booked slot
+        Set<String> booked = new HashSet<>();
+        int appointments = 0;
+        int doubleBooked = 0;
+        for (int c = 0; c < CAREGIVERS; c++) {
+            try (Appointment.AppointmentCursor cursor =
+                         central.findAppointments(AccountType.CAREGIVER, caregiver(c), null, 0, 0, 0)) {
+                while (cursor.hasNext()) {
+                    Appointment appointment = cursor.next();
+                    appointments++;
+                    if (!booked.add(slotName(new Slot(appointment.getTime(), appointment.getSlot(),
+                            appointment.getCaregiverUsername())))) {
+                        doubleBooked++;
+                    }
+                }
+            }
+        }
+        int bookedAndFree = 0;
+        for (Slot slot : central.freeSlots(null)) {
+            if (booked.contains(slotName(slot))) {
+                bookedAndFree++;
+            }
+        }
+        int diverged = 0;
+        for (OfflineStore clinic : clinics) {
+            if (clinic.pendingDeltas() != 0 || !clinic.vaccineStock().equals(central.vaccineStock())
+                    || !new HashSet<>(slotNames(clinic.freeSlots(null))).equals(
+                    new HashSet<>(slotNames(central.freeSlots(null))))) {
+                diverged++;
+            }
+        }
+
+        System.out.println("clinics=" + clinicCount + " rounds=" + rounds + " seed=" + seed
+                + " operations=" + operations + " cutSyncs=" + cutSyncs + " conflicts=" + conflicts);
+        System.out.println("appointments=" + appointments + " remainingDoses=" + doses
+                + " receivedDoses=" + receivedDoses + " doubleBooked=" + doubleBooked
+                + " bookedAndFree=" + bookedAndFree + " divergedClinics=" + diverged);
+        boolean ok = doses >= 0
+                && doses + appointments == INITIAL_DOSES + receivedDoses
+                && doubleBooked == 0
+                && bookedAndFree == 0
+                && diverged == 0;
+        System.out.println(ok ? "PASS: no oversell, no double booking, clinics converged" : "FAIL");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    // runs one random command at a clinic and returns the doses it received
+    private static int operate(SchedulerStore clinic, int k, int round, Random random, Set<String> patients)
+            throws SQLException {
+        Date date = day(random.nextInt(DAYS));
+        int choice = random.nextInt(100);
+        if (choice < 15) {
+            // every clinic tries the same username, so all but the first to sync lose it
+            String patient = random.nextBoolean()
+                    ? "drill_p" + k + "_" + round + "_" + choice : "drill_shared_" + round;
+            try {
+                clinic.insertAccount(AccountType.PATIENT, new Credentials(patient, new byte[16], new byte[16]));
+                patients.add(patient);
+            } catch (SQLException e) {
+                // taken locally
+            }
+        } else if (choice < 65) {
+            List<String> known = new ArrayList<>(patients);
+            if (!known.isEmpty()) {
+                Collections.sort(known);
+                String patient = known.get(random.nextInt(known.size()));
+                if (logIn(clinic, AccountType.PATIENT, patient)) {
+                    // half ask for a slot, half take the earliest free one
+                    clinic.reserve(patient, date, random.nextInt(2 * SLOTS) - SLOTS, VACCINE, null);
+                }
+            }
+        } else if (choice < 75) {
+            List<String> known = new ArrayList<>(patients);
+            Collections.sort(known);
+            for (String patient : known) {
+                try (Appointment.AppointmentCursor cursor =
+                             clinic.findAppointments(AccountType.PATIENT, patient, null, 0, 1, 0)) {
+                    if (cursor.hasNext() && random.nextInt(4) == 0) {
+                        clinic.cancelAppointment(cursor.next().getAppointmentId(), patient);
+                        break;
+                    }
+                }
+            }
+        } else if (choice < 85) {
+            int received = 1 + random.nextInt(3);
+            clinic.receiveDoses(Collections.singletonMap(VACCINE, received));
+            return received;
+        } else if (choice < 97) {
+            String caregiver = caregiver(random.nextInt(CAREGIVERS));
+            if (logIn(clinic, AccountType.CAREGIVER, caregiver)) {
+                clinic.addAvailability(caregiver, new TreeSet<>(Collections.singleton(date)),
+                        Slot.range(random.nextInt(SLOTS), SLOTS));
+            }
+        } else {
+            String caregiver = caregiver(random.nextInt(CAREGIVERS));
+            if (logIn(clinic, AccountType.CAREGIVER, caregiver)) {
+                clinic.cancelCaregiverDay(caregiver, date);
+            }
+        }
+        return 0;
+    }
+
+    // as logging in at the clinic does: an account it does not know yet is fetched from the central
+    // database, which fails while the link is down
+    private static boolean logIn(SchedulerStore clinic, AccountType type, String username) throws SQLException {
+        return clinic.findCredentials(type, username) != null;
+    }
+
+    private static List<String> slotNames(List<Slot> slots) {
+        List<String> names = new ArrayList<>();
+        for (Slot slot : slots) {
+            names.add(slotName(slot));
+        }
+        return names;
+    }
+
+    private static String slotName(Slot slot) {
+        return slot.getTime() + " " + Slot.startOf(slot.getSlot()) + " " + slot.getCaregiverUsername();
+    }
+
+    private static String caregiver(int c) {
+        return "drill_c" + c;
+    }
+
+    private static Date day(int d) {
+        return Date.valueOf(FIRST_DAY.plusDays(d));
+    }
+
+    /**
+     * A connection to the stand-in database that can be cut, or set to fail after a number of calls.
+     */
+    private static class Link {
+        private final SchedulerStore target;
+        private volatile boolean up = true;
+        // calls that still go through before the link fails; negative for no limit
+        private volatile int callsLeft = -1;
+
+        private Link(SchedulerStore target) {
+            this.target = target;
+        }
+
+        private SchedulerStore proxy() {
+            return (SchedulerStore) Proxy.newProxyInstance(SchedulerStore.class.getClassLoader(),
+                    new Class<?>[]{SchedulerStore.class}, (proxy, method, args) -> {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(this, args);
+                        }
+                        if (!up || callsLeft == 0) {
+                            up = false;
+                            throw new SQLNonTransientConnectionException("Link to the central database is down");
+                        }
+                        if (callsLeft > 0) {
+                            callsLeft--;
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
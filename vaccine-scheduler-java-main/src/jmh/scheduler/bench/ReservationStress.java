@@ -0,0 +1,206 @@
+package scheduler.bench;
+
+import scheduler.db.ConnectionManager;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.ReservationService;
+import scheduler.store.DoseLedger;
+import scheduler.store.SqlServerStore;
+import scheduler.store.Stores;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency stress check for ReservationService.
+ *
+ * Seeds a throwaway vaccine, caregivers free in the first slot of a far-future date and patients,
+ * lets many threads reserve that date at once, and then verifies against the database that no
+ * dose was oversold and no caregiver was booked twice or lost a slot. The seeded rows are removed
+ * afterwards.
+ *
+ * usage: gradle bench -Pmain=ReservationStress -Pargs="[threads] [caregivers] [doses]"
+ * exits with status 1 if any invariant is violated.
+ */
+public class ReservationStress {
+
+    private static final String PREFIX = "stress_";
+    private static final String VACCINE = PREFIX + "vaccine";
+    private static final Date DATE = Date.valueOf("2999-12-31");
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int caregivers = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int doses = args.length > 2 ? Integer.parseInt(args[2]) : 25;
+
+        // the data is seeded with SQL, so the reservations must run against SQL Server as well
+        Stores.set(new SqlServerStore());
+        cleanUp();
+        seed(threads, caregivers, doses);
+        AvailabilityIndex.getInstance().reload();
+        try {
+            AtomicInteger reserved = new AtomicInteger();
+            AtomicInteger rejected = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            ReservationService service = new ReservationService();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                String patient = PREFIX + "p" + i;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    try {
+                        if (service.reserve(patient, DATE, VACCINE).isReserved()) {
+                            reserved.incrementAndGet();
+                        } else {
+                            rejected.incrementAndGet();
+                        }
+                    } catch (SQLException e) {
+                        errors.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> f : futures) {
+                f.get();
+            }
+            long elapsedMillis = (System.nanoTime() - begin) / 1_000_000;
+            pool.shutdown();
+
+            int expected = Math.min(doses, caregivers);
+            int remaining = remainingDoses();
+            int booked = bookedAppointments();
+            int doubleBooked = doubleBookedCaregivers();
+            int freeSlots = freeSlots();
+            System.out.println("threads=" + threads + " caregivers=" + caregivers + " doses=" + doses
+                    + " reserved=" + reserved + " rejected=" + rejected + " errors=" + errors
+                    + " elapsedMs=" + elapsedMillis);
+            System.out.println("booked=" + booked + " remainingDoses=" + remaining
+                    + " freeSlots=" + freeSlots + " doubleBookedCaregivers=" + doubleBooked);
+
+            boolean ok = remaining >= 0
+                    && booked + remaining == doses
+                    && booked == reserved.get()
+                    && booked + freeSlots == caregivers
+                    && doubleBooked == 0
+                    && (threads < expected || booked == expected);
+            System.out.println(ok ? "PASS: no oversell, no double booking" : "FAIL");
+            if (!ok) {
+                System.exit(1);
+            }
+        } finally {
+            cleanUp();
+        }
+    }
+
+    private static void seed(int patients, int caregivers, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            byte[] filler = new byte[16];
+            try (PreparedStatement statement = con.prepareStatement("INSERT INTO Patients VALUES (?, ?, ?)")) {
+                for (int i = 0; i < patients; i++) {
+                    statement.setString(1, PREFIX + "p" + i);
+                    statement.setBytes(2, filler);
+                    statement.setBytes(3, filler);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            try (PreparedStatement statement = con.prepareStatement("INSERT INTO Caregivers VALUES (?, ?, ?)")) {
+                for (int i = 0; i < caregivers; i++) {
+                    statement.setString(1, PREFIX + "c" + i);
+                    statement.setBytes(2, filler);
+                    statement.setBytes(3, filler);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            try (PreparedStatement statement = con.prepareStatement(
+                    "INSERT INTO Availabilities (Time, Slot, Username) VALUES (?, 0, ?)")) {
+                for (int i = 0; i < caregivers; i++) {
+                    statement.setDate(1, DATE);
+                    statement.setString(2, PREFIX + "c" + i);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            try (PreparedStatement statement = con.prepareStatement("INSERT INTO Vaccines VALUES (?, ?)")) {
+                statement.setString(1, VACCINE);
+                statement.setInt(2, doses);
+                statement.executeUpdate();
+            }
+            con.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static int remainingDoses() throws SQLException {
+        return new DoseLedger().available(VACCINE);
+    }
+
+    private static int bookedAppointments() throws SQLException {
+        return queryInt("SELECT COUNT(*) FROM Appointments WHERE VaccineName = '" + VACCINE + "'");
+    }
+
+    private static int freeSlots() throws SQLException {
+        return queryInt("SELECT COUNT(*) FROM Availabilities WHERE Username LIKE '" + PREFIX + "%'");
+    }
+
+    private static int doubleBookedCaregivers() throws SQLException {
+        return queryInt("SELECT COUNT(*) FROM (SELECT CaregiverUsername FROM Appointments " +
+                "WHERE Time = '" + DATE + "' " +
+                "GROUP BY CaregiverUsername, Slot HAVING COUNT(*) > 1) d");
+    }
+
+    private static int queryInt(String query) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(query);
+             ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void cleanUp() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        String like = PREFIX + "%";
+        try {
+            for (String delete : new String[]{
+                    "DELETE FROM Appointments WHERE CaregiverUsername LIKE ? OR PatientUsername LIKE ?",
+                    "DELETE FROM Availabilities WHERE Username LIKE ?",
+                    "DELETE FROM VaccineDoseStripes WHERE Name LIKE ?",
+                    "DELETE FROM Vaccines WHERE Name LIKE ?",
+                    "DELETE FROM Caregivers WHERE Username LIKE ?",
+                    "DELETE FROM Patients WHERE Username LIKE ?"}) {
+                try (PreparedStatement statement = con.prepareStatement(delete)) {
+                    int params = delete.length() - delete.replace("?", "").length();
+                    for (int i = 1; i <= params; i++) {
+                        statement.setString(i, like);
+                    }
+                    statement.executeUpdate();
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
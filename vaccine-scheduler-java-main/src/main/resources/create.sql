@@ -2,7 +2,7 @@
 CREATE TABLE Caregivers (
                             Username varchar(255) NOT NULL,
                             Salt BINARY(16) NOT NULL,
-                            Hash BINARY(16) NOT NULL,
+                            Hash VARBINARY(64) NOT NULL,
                             PRIMARY KEY (Username)
 );
 
@@ -10,7 +10,7 @@ CREATE TABLE Caregivers (
 CREATE TABLE Patients (
                           Username varchar(255) NOT NULL,
                           Salt BINARY(16) NOT NULL,
-                          Hash BINARY(16) NOT NULL,
+                          Hash VARBINARY(64) NOT NULL,
                           PRIMARY KEY (Username)
 );
 
@@ -25,6 +25,7 @@ CREATE TABLE Vaccines (
 CREATE TABLE Appointments (
                               AppointmentID int IDENTITY(1,1) PRIMARY KEY,
                               Time date NOT NULL,
+                              Slot tinyint NOT NULL DEFAULT 0,
                               PatientUsername varchar(255),
                               CaregiverUsername varchar(255),
                               VaccineName varchar(255),
@@ -33,10 +34,45 @@ CREATE TABLE Appointments (
                               FOREIGN KEY (VaccineName) REFERENCES Vaccines(Name)
 );
 
+-- Indexes for the hot Appointments queries: show_appointments for either party and the per-day
+-- booking checks. They include every column those queries read so they never touch the table.
+-- UX_Appointments_Slot also keeps a caregiver from being booked twice in the same slot.
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (CaregiverUsername, AppointmentID)
+    INCLUDE (Time, Slot, PatientUsername, VaccineName);
+CREATE INDEX IX_Appointments_Patient ON Appointments (PatientUsername, AppointmentID)
+    INCLUDE (Time, Slot, CaregiverUsername, VaccineName);
+CREATE UNIQUE INDEX UX_Appointments_Slot ON Appointments (Time, CaregiverUsername, Slot)
+    INCLUDE (PatientUsername);
+
 -- Creating the Availabilities table
+-- One row per free caregiver slot; reserving a slot moves it into Appointments. Slot numbers the
+-- 15-minute slots of a day from 09:00 (see scheduler.store.Slot).
 CREATE TABLE Availabilities (
                                 Time date NOT NULL,
+                                Slot tinyint NOT NULL DEFAULT 0,
                                 Username varchar(255) NOT NULL,
-                                PRIMARY KEY (Time, Username),
+                                CONSTRAINT PK_Availabilities PRIMARY KEY (Time, Slot, Username),
                                 FOREIGN KEY (Username) REFERENCES Caregivers(Username)
-);
\ No newline at end of file
+);
+
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time, Slot);
+
+-- Creating the VaccineDoseStripes table
+-- Optional striped dose counters: the available stock of a vaccine is Vaccines.Doses plus the sum
+-- of its stripes, so concurrent intake and reservations can update different rows.
+CREATE TABLE VaccineDoseStripes (
+                                    Name varchar(255) NOT NULL,
+                                    Stripe int NOT NULL,
+                                    Doses int NOT NULL,
+                                    PRIMARY KEY (Name, Stripe),
+                                    FOREIGN KEY (Name) REFERENCES Vaccines(Name)
+);
+
+-- Creating the SyncedDeltas table
+-- Deltas applied by offline clinics (Store=offline), so a delta sent twice is applied once, and
+-- the appointment each reservation delta booked.
+CREATE TABLE SyncedDeltas (
+                              DeltaID char(36) NOT NULL PRIMARY KEY,
+                              AppliedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+                              AppointmentID int NULL
+);
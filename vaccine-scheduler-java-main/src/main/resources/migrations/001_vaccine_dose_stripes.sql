@@ -0,0 +1,10 @@
+-- Adds the striped dose counters used by scheduler.store.DoseLedger.
+-- Existing stock stays in Vaccines.Doses; stripes start empty and are created on first use.
+IF OBJECT_ID('VaccineDoseStripes', 'U') IS NULL
+CREATE TABLE VaccineDoseStripes (
+                                    Name varchar(255) NOT NULL,
+                                    Stripe int NOT NULL,
+                                    Doses int NOT NULL,
+                                    PRIMARY KEY (Name, Stripe),
+                                    FOREIGN KEY (Name) REFERENCES Vaccines(Name)
+);
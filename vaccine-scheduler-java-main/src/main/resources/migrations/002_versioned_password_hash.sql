@@ -0,0 +1,5 @@
+-- Widens the password hash columns for the versioned format written by scheduler.util.PasswordHasher
+-- (a 5 byte header plus the derived key). Existing 16 byte legacy hashes are kept as they are and
+-- upgraded to the current format the next time their owner logs in.
+ALTER TABLE Caregivers ALTER COLUMN Hash VARBINARY(64) NOT NULL;
+ALTER TABLE Patients ALTER COLUMN Hash VARBINARY(64) NOT NULL;
@@ -0,0 +1,35 @@
+-- Moves free caregiver slots out of Appointments into Availabilities and adds the indexes used by
+-- the scheduler's hot queries.
+--
+-- Before this migration upload_availability stored a free slot as an Appointments row with no
+-- patient. Those rows become Availabilities rows, except where the caregiver is already booked
+-- that day, and are then removed from Appointments.
+SET XACT_ABORT ON;
+BEGIN TRANSACTION;
+
+INSERT INTO Availabilities (Time, Username)
+SELECT DISTINCT a.Time, a.CaregiverUsername
+FROM Appointments a
+WHERE a.PatientUsername IS NULL
+  AND a.CaregiverUsername IS NOT NULL
+  AND NOT EXISTS (SELECT 1 FROM Appointments b
+                  WHERE b.CaregiverUsername = a.CaregiverUsername
+                    AND b.Time = a.Time AND b.PatientUsername IS NOT NULL)
+  AND NOT EXISTS (SELECT 1 FROM Availabilities av
+                  WHERE av.Time = a.Time AND av.Username = a.CaregiverUsername);
+
+DELETE FROM Appointments WHERE PatientUsername IS NULL;
+
+COMMIT TRANSACTION;
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_Caregiver')
+    CREATE INDEX IX_Appointments_Caregiver ON Appointments (CaregiverUsername, AppointmentID)
+        INCLUDE (Time, PatientUsername, VaccineName);
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_Patient')
+    CREATE INDEX IX_Appointments_Patient ON Appointments (PatientUsername, AppointmentID)
+        INCLUDE (Time, CaregiverUsername, VaccineName);
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_Time')
+    CREATE INDEX IX_Appointments_Time ON Appointments (Time, CaregiverUsername)
+        INCLUDE (PatientUsername);
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Availabilities_Username')
+    CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time);
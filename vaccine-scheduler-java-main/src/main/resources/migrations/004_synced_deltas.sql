@@ -0,0 +1,7 @@
+-- Records the deltas that offline clinics (Store=offline) have applied to this database, so a batch
+-- that is sent again after a lost acknowledgement skips the deltas it already applied.
+IF OBJECT_ID('SyncedDeltas') IS NULL
+    CREATE TABLE SyncedDeltas (
+        DeltaID char(36) NOT NULL PRIMARY KEY,
+        AppliedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME()
+    );
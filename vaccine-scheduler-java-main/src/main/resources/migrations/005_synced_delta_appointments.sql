@@ -0,0 +1,5 @@
+-- Stores the appointment each offline clinic reservation delta booked with the delta, so a clinic
+-- that resends a delta, or restarts, can still find the appointment to cancel. Deltas applied
+-- before this migration keep no appointment.
+IF COL_LENGTH('SyncedDeltas', 'AppointmentID') IS NULL
+    ALTER TABLE SyncedDeltas ADD AppointmentID int NULL;
@@ -0,0 +1,57 @@
+-- Splits each caregiver's day into 15-minute slots from 09:00 to 17:00, numbered 0 to 31 (see
+-- scheduler.store.Slot), and adds a Slot column to Availabilities and Appointments.
+--
+-- An existing free day becomes all of that day's slots (Slot.WHOLE_DAY), and an existing
+-- appointment slot 0 (09:00). Should a caregiver have more than one appointment on a day, the
+-- later ones move to the following slots so that the new unique index holds. Run with sqlcmd or
+-- another client that understands GO.
+IF COL_LENGTH('Availabilities', 'Slot') IS NULL
+    ALTER TABLE Availabilities ADD Slot tinyint NOT NULL CONSTRAINT DF_Availabilities_Slot DEFAULT 0;
+IF COL_LENGTH('Appointments', 'Slot') IS NULL
+    ALTER TABLE Appointments ADD Slot tinyint NOT NULL CONSTRAINT DF_Appointments_Slot DEFAULT 0;
+GO
+
+-- the primary key was created without a name, so it is looked up
+DECLARE @pk sysname = (SELECT name FROM sys.key_constraints
+                       WHERE parent_object_id = OBJECT_ID('Availabilities') AND type = 'PK');
+IF @pk IS NULL OR @pk <> 'PK_Availabilities'
+BEGIN
+    IF @pk IS NOT NULL
+    BEGIN
+        DECLARE @drop nvarchar(300) = N'ALTER TABLE Availabilities DROP CONSTRAINT ' + QUOTENAME(@pk);
+        EXEC (@drop);
+    END;
+    ALTER TABLE Availabilities ADD CONSTRAINT PK_Availabilities PRIMARY KEY (Time, Slot, Username);
+    -- only on the first run: until now every row was a whole free day, added as slot 0
+    WITH Slots AS (SELECT 1 AS Slot UNION ALL SELECT Slot + 1 FROM Slots WHERE Slot < 31)
+    INSERT INTO Availabilities (Time, Slot, Username)
+    SELECT a.Time, s.Slot, a.Username
+    FROM Availabilities a CROSS JOIN Slots s
+    WHERE a.Slot = 0;
+END;
+GO
+
+UPDATE a SET Slot = r.Seq
+FROM Appointments a
+JOIN (SELECT AppointmentID,
+             ROW_NUMBER() OVER (PARTITION BY Time, CaregiverUsername ORDER BY AppointmentID) - 1 AS Seq
+      FROM Appointments) r ON r.AppointmentID = a.AppointmentID
+WHERE r.Seq > 0;
+
+IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Availabilities_Username')
+    DROP INDEX IX_Availabilities_Username ON Availabilities;
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time, Slot);
+
+IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_Caregiver')
+    DROP INDEX IX_Appointments_Caregiver ON Appointments;
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (CaregiverUsername, AppointmentID)
+    INCLUDE (Time, Slot, PatientUsername, VaccineName);
+IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_Patient')
+    DROP INDEX IX_Appointments_Patient ON Appointments;
+CREATE INDEX IX_Appointments_Patient ON Appointments (PatientUsername, AppointmentID)
+    INCLUDE (Time, Slot, CaregiverUsername, VaccineName);
+IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_Time')
+    DROP INDEX IX_Appointments_Time ON Appointments;
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'UX_Appointments_Slot')
+    CREATE UNIQUE INDEX UX_Appointments_Slot ON Appointments (Time, CaregiverUsername, Slot)
+        INCLUDE (PatientUsername);
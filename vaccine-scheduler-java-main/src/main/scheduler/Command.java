@@ -0,0 +1,89 @@
+package scheduler;
+
+import scheduler.metrics.Histogram;
+import scheduler.metrics.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One entry of the scheduler's command table: the command's name, how it is described in the
+ * greeting, how many arguments it takes and the code that runs it.
+ *
+ * The number of arguments is checked before the handler runs, so handlers can index their
+ * tokens directly. The command's latency histogram and error counter are looked up once here
+ * instead of on every call.
+ */
+public class Command {
+
+    // maxArgs of a command that takes any number of arguments
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final String name;
+    private final String usage;
+    private final int minArgs;
+    private final int maxArgs;
+    private final String arityMessage;
+    private final Handler handler;
+    private final boolean quits;
+    private final Histogram latency;
+    private final LongAdder errors;
+
+    public Command(String name, String usage, int minArgs, int maxArgs, String arityMessage, Handler handler) {
+        this(name, usage, minArgs, maxArgs, arityMessage, handler, false);
+    }
+
+    private Command(String name, String usage, int minArgs, int maxArgs, String arityMessage, Handler handler,
+                    boolean quits) {
+        this.name = name;
+        this.usage = usage;
+        this.minArgs = minArgs;
+        this.maxArgs = maxArgs;
+        this.arityMessage = arityMessage;
+        this.handler = handler;
+        this.quits = quits;
+        this.latency = Metrics.histogram("scheduler_command_seconds", "command", name);
+        this.errors = Metrics.counter("scheduler_command_errors_total", "command", name);
+    }
+
+    /**
+     * A command that ends the session after its handler ran, whatever arguments it was given.
+     */
+    public static Command quit(String name, Handler handler) {
+        return new Command(name, "", 0, UNBOUNDED, "", handler, true);
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public String getUsage() {
+        return usage;
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public LongAdder getErrors() {
+        return errors;
+    }
+
+    /**
+     * Runs the command for the given tokens, the first of which is the command's name. Returns
+     * false if the session should end.
+     */
+    public boolean run(Session session, String[] tokens) {
+        int args = tokens.length - 1;
+        if (args < minArgs || args > maxArgs) {
+            session.println(arityMessage);
+            return true;
+        }
+        handler.run(session, tokens);
+        return !quits;
+    }
+
+    public interface Handler {
+        void run(Session session, String[] tokens);
+    }
+}
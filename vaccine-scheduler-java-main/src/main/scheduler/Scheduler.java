@@ -1,48 +1,120 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
+import scheduler.metrics.Histogram;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.MetricsExporter;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
-import scheduler.model.Vaccine;
+import scheduler.server.SchedulerServer;
+import scheduler.server.ScriptPipeline;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.ReservationService;
+import scheduler.service.ScheduleView;
+import scheduler.service.UserImporter;
+import scheduler.store.AccountType;
+import scheduler.store.Credentials;
+import scheduler.store.Reservation;
+import scheduler.store.Slot;
+import scheduler.store.Stores;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // upper bound for the date ranges of upload_availability_range and search_caregiver_schedule,
+    // roughly a year of shifts
+    private static final int MAX_AVAILABILITY_RANGE_DAYS = 366;
+
+    // every command, in the order the greeting lists them; a handler only runs once the number of
+    // arguments is in range, otherwise the command's own arity message is printed
+    private static final Map<String, Command> COMMANDS = new LinkedHashMap<>();
+
+    static {
+        register(new Command("create_patient", "<username> <password>", 2, 2,
+                "Failed to create patient. Please provide a username and password.", Scheduler::createPatient));
+        register(new Command("create_patients", "<username> <password> [<username> <password> ...]", 2,
+                Command.UNBOUNDED, "Failed to create patients. Please provide a username and password for each.",
+                Scheduler::createPatients));
+        register(new Command("create_caregiver", "<username> <password>", 2, 2,
+                "Failed to create user.", Scheduler::createCaregiver));
+        register(new Command("import_users", "<file>", 1, 1,
+                "Please try again!", Scheduler::importUsers));
+        register(new Command("login_patient", "<username> <password>", 2, 2,
+                "Login failed. Please provide a username and password.", Scheduler::loginPatient));
+        register(new Command("login_caregiver", "<username> <password>", 2, 2,
+                "Login failed.", Scheduler::loginCaregiver));
+        register(new Command("search_caregiver_schedule", "<date> [end date]", 1, 2,
+                "Please enter a valid date!", Scheduler::searchCaregiverSchedule));
+        register(new Command("reserve", "<date> <vaccine> [time]", 2, 3,
+                "Please enter a valid date and vaccine name!", Scheduler::reserve));
+        register(new Command("upload_availability", "<date> [HH:mm-HH:mm]", 1, 2,
+                "Please try again!", Scheduler::uploadAvailability));
+        register(new Command("upload_availability_range", "<start> <end> [weekdays] [HH:mm-HH:mm]", 2, 4,
+                "Please try again!", Scheduler::uploadAvailabilityRange));
+        register(new Command("cancel", "<appointment_id>", 1, 1,
+                "Please provide the appointment ID!", Scheduler::cancel));
+        register(new Command("cancel_date", "<date>", 1, 1,
+                "Please try again!", Scheduler::cancelDate));
+        register(new Command("add_doses", "<vaccine> <number> [<vaccine> <number> ...]", 2, Command.UNBOUNDED,
+                "Please try again!", Scheduler::addDoses));
+        register(new Command("show_appointments", "[--from-date <date>] [--limit <n>] [--after-id <id>]", 0, 6,
+                "Please try again!", Scheduler::showAppointments));
+        register(new Command("logout", "", 0, Command.UNBOUNDED,
+                "Please try again!", Scheduler::logout));
+        register(Command.quit("quit", (session, tokens) -> session.println("Bye!")));
+    }
+
+    private static final Histogram INVALID_COMMAND_TIME =
+            Metrics.histogram("scheduler_command_seconds", "command", "invalid");
+
+    private static void register(Command command) {
+        COMMANDS.put(command.getName(), command);
+    }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--server")) {
+            SchedulerServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--pipeline")) {
+            ScriptPipeline.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        MetricsExporter.startFromEnvironment();
+        // load the availability index and schedule view up front so the first command does not pay for it
+        AvailabilityIndex.getInstance();
+        ScheduleView.getInstance();
+
         // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        printGreeting(System.out);
 
         // read input from user
+        Session session = new Session(System.out);
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             System.out.print("> ");
@@ -51,140 +123,177 @@ public class Scheduler {
                 response = r.readLine();
             } catch (IOException e) {
                 System.out.println("Please try again!");
-            }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
                 continue;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            // end of input behaves like quit
+            if (response == null || !execute(session, response)) {
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
             }
         }
     }
 
-    private static boolean isStrongPassword(String password) {
-        if (password.length() < 8) {
-            return false;
+    public static void printGreeting(PrintStream out) {
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        for (Command command : COMMANDS.values()) {
+            out.println("> " + command.getName() + (command.getUsage().isEmpty() ? "" : " " + command.getUsage()));
         }
+        out.println();
+    }
 
-        boolean hasUpper = false, hasLower = false, hasDigit = false, hasSpecial = false;
-        for (char c : password.toCharArray()) {
-            if (Character.isUpperCase(c)) hasUpper = true;
-            else if (Character.isLowerCase(c)) hasLower = true;
-            else if (Character.isDigit(c)) hasDigit = true;
-            else if ("!@#?".indexOf(c) >= 0) hasSpecial = true;
+    /**
+     * Runs a single command line for the given session. Returns false once the session asked to quit.
+     */
+    public static boolean execute(Session session, String response) {
+        String[] tokens = tokenize(response);
+        // check if input exists
+        if (tokens.length == 0) {
+            session.println("Please try again!");
+            return true;
+        }
+        long start = System.nanoTime();
+        Command command = COMMANDS.get(tokens[0]);
+        if (command == null) {
+            // unknown input is grouped under one label so it cannot blow up the number of series
+            INVALID_COMMAND_TIME.recordSince(start);
+            session.println("Invalid operation name!");
+            return true;
+        }
+        try {
+            return command.run(session, tokens);
+        } catch (RuntimeException e) {
+            command.getErrors().increment();
+            session.println("Please try again!");
+            e.printStackTrace();
+            return true;
+        } finally {
+            command.getLatency().recordSince(start);
         }
-        return hasUpper && hasLower && hasDigit && hasSpecial;
     }
 
-    private static void createPatient(String[] tokens) {
-        // TODO: Part 1
-        // Check if the command has the correct number of arguments
-        if (tokens.length != 3) {
-            System.out.println("Failed to create patient. Please provide a username and password.");
-            return;
+    /**
+     * Splits a command line into its words. Runs of spaces count as one separator and leading or
+     * trailing spaces are ignored; a null line has no words. Unlike String.split this never builds a
+     * regex or an intermediate list: one indexOf pass counts the words and a second cuts them out.
+     */
+    public static String[] tokenize(String line) {
+        if (line == null) {
+            return new String[0];
+        }
+        int count = 0;
+        for (int i = skipSpaces(line, 0); i < line.length(); i = skipSpaces(line, wordEnd(line, i))) {
+            count++;
+        }
+        String[] tokens = new String[count];
+        int token = 0;
+        for (int i = skipSpaces(line, 0); token < count; ) {
+            int end = wordEnd(line, i);
+            tokens[token++] = line.substring(i, end);
+            i = skipSpaces(line, end);
+        }
+        return tokens;
+    }
+
+    private static int skipSpaces(String line, int from) {
+        while (from < line.length() && line.charAt(from) == ' ') {
+            from++;
         }
+        return from;
+    }
+
+    private static int wordEnd(String line, int from) {
+        int end = line.indexOf(' ', from);
+        return end < 0 ? line.length() : end;
+    }
 
+    private static void createPatient(Session session, String[] tokens) {
+        // TODO: Part 1
         String username = tokens[1];
         String password = tokens[2];
 
         // Check for strong password
-        if (!isStrongPassword(password)) {
-            System.out.println("Password does not meet the strength requirements.");
-            return;
-        }
-
-        // Check if the username already exists
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username already taken, please try a different one.");
+        if (!Util.isStrongPassword(password)) {
+            session.println("Password does not meet the strength requirements.");
             return;
         }
 
         byte[] salt = Util.generateSalt();
         byte[] hash = Util.generateHash(password, salt);
 
+        // a single insert; the primary key tells us if the username is taken
         try {
-            // Assuming Patient class has a similar builder pattern as Caregiver
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             patient.saveToDB();
-            System.out.println("Patient account created successfully: " + username);
+            session.println("Patient account created successfully: " + username);
+        } catch (SQLIntegrityConstraintViolationException e) {
+            session.println("Username already taken, please try a different one.");
         } catch (SQLException e) {
-            System.out.println("Failed to create patient due to a database error.");
+            session.println("Failed to create patient due to a database error.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static void createPatients(Session session, String[] tokens) {
+        // create_patients <username> <password> [<username> <password> ...]
+        if (tokens.length % 2 == 0) {
+            session.println("Failed to create patients. Please provide a username and password for each.");
+            return;
+        }
+        // outcome per username, in command order; null until the account is inserted
+        Map<String, String> outcomes = new LinkedHashMap<>();
+        Map<String, String> passwords = new LinkedHashMap<>();
+        for (int i = 1; i < tokens.length; i += 2) {
+            String username = tokens[i];
+            if (outcomes.containsKey(username)) {
+                session.println("Username listed twice, skipped: " + username);
+            } else if (!Util.isStrongPassword(tokens[i + 1])) {
+                outcomes.put(username, "Password does not meet the strength requirements: " + username);
+            } else {
+                outcomes.put(username, null);
+                passwords.put(username, tokens[i + 1]);
+            }
+        }
+        // hash in parallel, then write every account with one batch insert
+        List<Credentials> accounts = passwords.entrySet().parallelStream()
+                .map(entry -> {
+                    byte[] salt = Util.generateSalt();
+                    return new Credentials(entry.getKey(), salt, Util.generateHash(entry.getValue(), salt));
+                })
+                .collect(Collectors.toList());
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns true if the cursor is not before the first record or if there are rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            Set<String> taken = Stores.get().insertAccounts(AccountType.PATIENT, accounts);
+            int created = 0;
+            for (Credentials account : accounts) {
+                if (taken.contains(account.getUsername())) {
+                    outcomes.put(account.getUsername(), "Username already taken: " + account.getUsername());
+                } else {
+                    outcomes.put(account.getUsername(),
+                            "Patient account created successfully: " + account.getUsername());
+                    created++;
+                }
+            }
+            for (String outcome : outcomes.values()) {
+                session.println(outcome);
+            }
+            session.println("Created " + created + " of " + (tokens.length - 1) / 2 + " patients.");
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking patient username");
+            session.println("Failed to create patients due to a database error.");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
-        return false;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
-            return;
-        }
         String username = tokens[1];
         String password = tokens[2];
 
         // Check for strong password
-        if (!isStrongPassword(password)) {
-            System.out.println("Password does not meet the strength requirements.");
+        if (!Util.isStrongPassword(password)) {
+            session.println("Password does not meet the strength requirements.");
             return;
         }
 
-        // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
-            return;
-        }
         byte[] salt = Util.generateSalt();
         byte[] hash = Util.generateHash(password, salt);
         // create the caregiver
@@ -192,43 +301,45 @@ public class Scheduler {
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            session.println("Created user " + username);
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // the primary key rejected it, so the username has been taken already
+            session.println("Username taken, try again!");
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static void importUsers(Session session, String[] tokens) {
+        // import_users <file>
+        if (session.isRemote()) {
+            // the file would be read from (and its rejects written to) the server's disk
+            session.println("import_users is only available on the server's own terminal!");
+            return;
+        }
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return;
+        }
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            UserImporter.Result result = new UserImporter().importFile(Paths.get(tokens[1]), session::println);
+            session.println("Import finished: " + result.getImported() + " users created, "
+                    + result.getRejected() + " rejected"
+                    + (result.getRejected() > 0 ? " (see " + result.getRejectFile() + ")" : ""));
+        } catch (IOException e) {
+            session.println("Could not read " + tokens[1] + ": " + e.getMessage());
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.println("Error occurred when importing users");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
-        return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private static void loginPatient(Session session, String[] tokens) {
         // TODO: Part 1
-        // Check if the command has the correct number of arguments
-        if (tokens.length != 3) {
-            System.out.println("Login failed. Please provide a username and password.");
-            return;
-        }
 
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Another user is already logged in. Please logout first.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.println("Another user is already logged in. Please logout first.");
             return;
         }
 
@@ -239,28 +350,23 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            session.println("Logged in as: " + username);
+            session.setCurrentPatient(patient);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Login failed.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.println("User already logged in.");
             return;
         }
         String username = tokens[1];
@@ -270,328 +376,376 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.println("Logged in as: " + username);
+            session.setCurrentCaregiver(caregiver);
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
         //TODO: part 2
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first!");
             return;
         }
 
-        if (tokens.length != 2) {
-            System.out.println("Please enter a valid date!");
+        // search_caregiver_schedule <date> [end date]
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[1]);
+            end = tokens.length == 3 ? Date.valueOf(tokens[2]) : start;
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+            return;
+        }
+        if (end.before(start)
+                || ChronoUnit.DAYS.between(start.toLocalDate(), end.toLocalDate()) >= MAX_AVAILABILITY_RANGE_DAYS) {
+            session.println("Please enter a range of at most " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
             return;
         }
 
-        String date = tokens[1];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String query = "SELECT c.Username, " +
-                "(CASE WHEN ap.PatientUsername IS NULL THEN 'Available' ELSE 'Not Available' END) as Availability, " +
-                "v.Name as Vaccine, ISNULL(v.Doses, 0) as Doses " +
-                "FROM Caregivers c " +
-                "LEFT JOIN Appointments ap ON c.Username = ap.CaregiverUsername AND ap.Time = ? " +
-                "CROSS JOIN Vaccines v " +
-                "GROUP BY c.Username, ap.PatientUsername, v.Name, v.Doses " +
-                "ORDER BY c.Username, v.Name";
-
-        try (PreparedStatement statement = con.prepareStatement(query)) {
-            Date queryDate = Date.valueOf(tokens[1]);
-            statement.setDate(1, queryDate);
-            ResultSet resultSet = statement.executeQuery();
-
-            while (resultSet.next()) {
-                String caregiverUsername = resultSet.getString(1);
-                String availability = resultSet.getString(2);
-                String vaccineName = resultSet.getString(3);
-                int doses = resultSet.getInt(4);
-
-                System.out.println(caregiverUsername + " - " + availability + " - Vaccine: " + (vaccineName != null ? vaccineName : "Not Available") + " - Doses: " + doses);
-            }
+        ScheduleView view = ScheduleView.getInstance();
+        if (!view.isLoaded()) {
+            session.println("Error occurred when searching caregiver schedule");
+            return;
+        }
+        try {
+            view.refresh(start, end);
         } catch (SQLException e) {
-            System.out.println("Error occurred when searching caregiver schedule");
+            session.println("Error occurred when searching caregiver schedule");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return;
+        }
+        for (Map.Entry<LocalDate, NavigableMap<String, Long>> day : view.freeCaregivers(start, end).entrySet()) {
+            // copied first: the index may change while the line is built
+            NavigableMap<String, Long> free = new TreeMap<>(day.getValue());
+            List<String> caregivers = new ArrayList<>(free.size());
+            for (Map.Entry<String, Long> caregiver : free.entrySet()) {
+                caregivers.add(caregiver.getKey() + " (" + Slot.describe(caregiver.getValue()) + ")");
+            }
+            session.println(day.getKey() + " - " + (free.isEmpty() ? "No caregiver available"
+                    : free.size() + " available: " + String.join(", ", caregivers)));
+        }
+        if (view.getStock().isEmpty()) {
+            session.println("No vaccines available");
+        }
+        for (Map.Entry<String, Integer> vaccine : view.getStock().entrySet()) {
+            session.println("Vaccine: " + vaccine.getKey() + " - Doses: " + vaccine.getValue());
         }
     }
 
-    private static void reserve(String[] tokens) {
+    private static void reserve(Session session, String[] tokens) {
         // TODO: Part 2
-        if (currentPatient == null) {
-            System.out.println(currentCaregiver != null ? "Please login as a patient!" : "Please login first!");
-            return;
-        }
-
-        if (tokens.length != 3) {
-            System.out.println("Please enter a valid date and vaccine name!");
+        if (session.getCurrentPatient() == null) {
+            session.println(session.getCurrentCaregiver() != null ? "Please login as a patient!" : "Please login first!");
             return;
         }
 
         String date = tokens[1];
         String vaccineName = tokens[2];
-        String caregiverUsername = null;
-        int remainingDoses = 0;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
+        int slot;
         try {
-            // Find an available caregiver
-            String findCaregiverQuery = "SELECT TOP 1 c.Username " +
-                    "FROM Caregivers c " +
-                    "LEFT JOIN Appointments ap ON c.Username = ap.CaregiverUsername AND ap.Time = ? " +
-                    "WHERE ap.PatientUsername IS NULL " + // Ensure that the caregiver is actually available
-                    "ORDER BY c.Username"; // Ensure alphabetical order
-
-            PreparedStatement findCaregiverStmt = con.prepareStatement(findCaregiverQuery);
-            findCaregiverStmt.setDate(1, Date.valueOf(date));
-            ResultSet caregiverResult = findCaregiverStmt.executeQuery();
-
-            if (!caregiverResult.next()) {
-                System.out.println("No Caregiver is available!");
-                return;
+            slot = tokens.length == 4 ? Slot.parse(tokens[3]) : -1;
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a time between " + Slot.DAY_START + " and " + Slot.startOf(Slot.PER_DAY - 1)
+                    + " on the quarter hour!");
+            return;
+        }
+        try {
+            Reservation reservation = new ReservationService().reserve(session.getCurrentPatient().getUsername(),
+                    Date.valueOf(date), slot, vaccineName);
+            switch (reservation.getStatus()) {
+                case NO_CAREGIVER:
+                    session.println("No Caregiver is available!");
+                    break;
+                case NO_DOSES:
+                    session.println("Not enough available doses!");
+                    break;
+                default:
+                    session.println("Appointment ID: " + reservation.getAppointmentId() +
+                            ", Caregiver username: " + reservation.getCaregiverUsername() +
+                            ", Time: " + Slot.startOf(reservation.getSlot()));
             }
-            caregiverUsername = caregiverResult.getString(1);
-
-            // Second I need to check vaccine availability
-            String checkVaccineQuery = "SELECT Doses FROM Vaccines WHERE Name = ?"; // Corrected table name
-            PreparedStatement checkVaccineStmt = con.prepareStatement(checkVaccineQuery);
-            checkVaccineStmt.setString(1, vaccineName);
-            ResultSet vaccineResult = checkVaccineStmt.executeQuery();
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            session.println("Error occurred when reserving appointment");
+            e.printStackTrace();
+        }
+    }
 
-            if (!vaccineResult.next() || vaccineResult.getInt(1) <= 0) {
-                System.out.println("Not enough available doses!");
+    private static void uploadAvailability(Session session, String[] tokens) {
+        // upload_availability <date> [HH:mm-HH:mm], the whole day by default
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return;
+        }
+        String date = tokens[1];
+        Date d;
+        long slots;
+        try {
+            d = Date.valueOf(date);
+            slots = tokens.length == 3 ? Slot.parseRange(tokens[2]) : Slot.WHOLE_DAY;
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date and time range (e.g. 09:00-12:00)!");
+            return;
+        }
+        try {
+            Caregiver.UploadResult result = session.getCurrentCaregiver().uploadAvailability(d, slots);
+            if (result.getUploaded().isEmpty()) {
+                session.println("Availability already uploaded for " + date + "!");
                 return;
             }
-
-            remainingDoses = vaccineResult.getInt(1) - 1;
-
-            // Third step is to create an appointment
-            String createAppointmentQuery = "INSERT INTO Appointments (Time, PatientUsername, CaregiverUsername, VaccineName) VALUES (?, ?, ?, ?)";
-            PreparedStatement createAppointmentStmt = con.prepareStatement(createAppointmentQuery, PreparedStatement.RETURN_GENERATED_KEYS);
-            createAppointmentStmt.setDate(1, Date.valueOf(date));
-            createAppointmentStmt.setString(2, currentPatient.getUsername());
-            createAppointmentStmt.setString(3, caregiverUsername);
-            createAppointmentStmt.setString(4, vaccineName);
-            createAppointmentStmt.executeUpdate();
-
-            ResultSet generatedKeys = createAppointmentStmt.getGeneratedKeys();
-            if (!generatedKeys. next()) {
-                System.out.println("Failed to create appointment.");
-                return;
+            for (Slot slot : result.getUploaded()) {
+                AvailabilityIndex.getInstance().markFree(slot);
             }
-            int appointmentId = generatedKeys.getInt(1);
-
-            // Fourth step is to update vaccine doses
-            String updateDosesQuery = "UPDATE Vaccines SET Doses = ? WHERE Name = ?";
-            PreparedStatement updateDosesStmt = con.prepareStatement(updateDosesQuery);
-            updateDosesStmt.setInt(1, remainingDoses);
-            updateDosesStmt.setString(2, vaccineName);
-            updateDosesStmt.executeUpdate();
-
-            System.out.println("Appointment ID: " + appointmentId + ", Caregiver username: " + caregiverUsername);
-
+            session.println("Availability uploaded!");
         } catch (SQLException e) {
-            System.out.println("Error occurred when reserving appointment");
+            session.println("Error occurred when uploading availability" + e.getMessage());
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        // upload_availability_range <start> <end> [weekdays] [HH:mm-HH:mm]
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        List<Date> dates = new ArrayList<>();
+        long slots = Slot.WHOLE_DAY;
+        try {
+            // a time range is told apart from the weekdays by its colons
+            String weekdayList = null;
+            for (int i = 3; i < tokens.length; i++) {
+                if (tokens[i].indexOf(':') >= 0) {
+                    slots = Slot.parseRange(tokens[i]);
+                } else {
+                    weekdayList = tokens[i];
+                }
+            }
+            LocalDate start = Date.valueOf(tokens[1]).toLocalDate();
+            LocalDate end = Date.valueOf(tokens[2]).toLocalDate();
+            if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_AVAILABILITY_RANGE_DAYS) {
+                session.println("Please enter a range of at most " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
+                return;
+            }
+            Set<DayOfWeek> weekdays = weekdayList != null ? parseWeekdays(weekdayList) : EnumSet.allOf(DayOfWeek.class);
+            for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+                if (weekdays.contains(d.getDayOfWeek())) {
+                    dates.add(Date.valueOf(d));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter valid dates, weekdays (e.g. mon,wed,fri) and time range (e.g. 09:00-12:00)!");
             return;
         }
-        String date = tokens[1];
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            Caregiver caregiver = session.getCurrentCaregiver();
+            Caregiver.UploadResult result = caregiver.uploadAvailability(dates, slots);
+            AvailabilityIndex index = AvailabilityIndex.getInstance();
+            Set<Date> uploadedDates = new TreeSet<>();
+            for (Slot slot : result.getUploaded()) {
+                index.markFree(slot);
+                uploadedDates.add(slot.getTime());
+            }
+            session.println("Availability uploaded for " + result.getUploaded().size() + " slots on "
+                    + uploadedDates.size() + " dates, " + result.getDuplicates() + " duplicate slots skipped!");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability" + e.getMessage());
+            session.println("Error occurred when uploading availability" + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
-            return;
+    // parses a comma separated list of day names such as "mon,wed,fri"
+    private static Set<DayOfWeek> parseWeekdays(String weekdays) {
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String day : weekdays.split(",")) {
+            String prefix = day.trim().toUpperCase(Locale.ROOT);
+            DayOfWeek match = null;
+            for (DayOfWeek candidate : DayOfWeek.values()) {
+                if (prefix.length() >= 3 && candidate.name().startsWith(prefix)) {
+                    match = candidate;
+                }
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("Unknown weekday: " + day);
+            }
+            days.add(match);
         }
+        return days;
+    }
 
-        if (tokens.length != 2) {
-            System.out.println("Please provide the appointment ID!");
+    private static void cancel(Session session, String[] tokens) {
+        // TODO: Extra credit
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first!");
             return;
         }
 
         int appointmentId = Integer.parseInt(tokens[1]);
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
+        String username = session.getCurrentPatient() != null
+                ? session.getCurrentPatient().getUsername() : session.getCurrentCaregiver().getUsername();
         try {
-            // Check if the appointment exists and belongs to the current user
-            String checkQuery = "SELECT * FROM Appointments WHERE AppointmentID = ? AND (PatientUsername = ? OR CaregiverUsername = ?)";
-            PreparedStatement checkStmt = con.prepareStatement(checkQuery);
-            checkStmt.setInt(1, appointmentId);
-            checkStmt.setString(2, currentPatient != null ? currentPatient.getUsername() : currentCaregiver.getUsername());
-            checkStmt.setString(3, currentCaregiver != null ? currentCaregiver.getUsername() : currentPatient.getUsername());
-
-            ResultSet resultSet = checkStmt.executeQuery();
-            if (!resultSet.next()) {
-                System.out.println("Appointment not found or does not belong to the current user.");
+            // only cancels the appointment if it belongs to the current user; the slot and the dose are given back
+            if (new ReservationService().cancel(appointmentId, username) == null) {
+                session.println("Appointment not found or does not belong to the current user.");
                 return;
             }
-
-            // Delete the appointment
-            String deleteQuery = "DELETE FROM Appointments WHERE AppointmentID = ?";
-            PreparedStatement deleteStmt = con.prepareStatement(deleteQuery);
-            deleteStmt.setInt(1, appointmentId);
-            deleteStmt.executeUpdate();
-
-            System.out.println("Appointment cancelled successfully.");
-
+            session.println("Appointment cancelled successfully.");
         } catch (SQLException e) {
-            System.out.println("Error occurred when cancelling appointment");
+            session.println("Error occurred when cancelling appointment");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void addDoses(String[] tokens) {
-        // add_doses <vaccine> <number>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+    private static void cancelDate(Session session, String[] tokens) {
+        // cancel_date <date>: the caregiver cannot work that day
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
+        Date date;
+        try {
+            date = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
             return;
         }
-        String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
         try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            List<Appointment> cancelled =
+                    new ReservationService().cancelDay(session.getCurrentCaregiver().getUsername(), date);
+            session.println("Cancelled " + cancelled.size() + " appointments on " + date + ".");
+            for (Appointment appointment : cancelled) {
+                session.println("Appointment ID: " + appointment.getAppointmentId()
+                        + " - Patient: " + appointment.getPatientUsername());
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            session.println("Error occurred when cancelling appointments");
             e.printStackTrace();
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
-            try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+    }
+
+    private static void addDoses(Session session, String[] tokens) {
+        // add_doses <vaccine> <number> [<vaccine> <number> ...]
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the tokens after the operation name need to come in vaccine/number pairs
+        if (tokens.length % 2 == 0) {
+            session.println("Please try again!");
+            return;
+        }
+        // a vaccine listed twice in one shipment gets the sum of its doses
+        Map<String, Integer> shipment = new TreeMap<>();
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                int doses = Integer.parseInt(tokens[i + 1]);
+                if (doses <= 0) {
+                    throw new NumberFormatException("Doses must be positive: " + doses);
+                }
+                shipment.merge(tokens[i], doses, Math::addExact);
             }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
-            try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+        } catch (NumberFormatException | ArithmeticException e) {
+            session.println("Please enter a positive number of doses!");
+            return;
+        }
+        // one upsert for the whole shipment: new vaccines are created, existing ones topped up
+        try {
+            SortedMap<String, Integer> stock = Stores.get().receiveDoses(shipment);
+            for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+                ScheduleView.getInstance().setStock(entry.getKey(), entry.getValue());
+            }
+            session.println("Doses updated!");
+            for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+                session.println("Vaccine: " + entry.getKey() + " - Doses: " + entry.getValue());
             }
+        } catch (SQLException e) {
+            session.println("Error occurred when adding doses");
+            e.printStackTrace();
         }
-        System.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        // TODO: Part 2
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void showAppointments(Session session, String[] tokens) {
+        // show_appointments [--from-date <date>] [--limit <n>] [--after-id <id>]
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first!");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        Appointment.AppointmentGetter getter = session.getCurrentCaregiver() != null
+                ? Appointment.AppointmentGetter.forCaregiver(session.getCurrentCaregiver().getUsername())
+                : Appointment.AppointmentGetter.forPatient(session.getCurrentPatient().getUsername());
+        int limit = 0;
         try {
-            String query;
-            PreparedStatement statement;
-
-            if (currentCaregiver != null) {
-                // Fetch appointments for the caregiver
-                query = "SELECT AppointmentID, VaccineName, Time, p.Username " +
-                        "FROM Appointments a " +
-                        "JOIN Patients p ON a.PatientUsername = p.Username " +
-                        "WHERE CaregiverUsername = ? " +
-                        "ORDER BY AppointmentID";
-                statement = con.prepareStatement(query);
-                statement.setString(1, currentCaregiver.getUsername());
-            } else {
-                // Fetch appointments for the patient
-                query = "SELECT AppointmentID, VaccineName, Time, c.Username " +
-                        "FROM Appointments a " +
-                        "JOIN Caregivers c ON a.CaregiverUsername = c.Username " +
-                        "WHERE PatientUsername = ? " +
-                        "ORDER BY AppointmentID";
-                statement = con.prepareStatement(query);
-                statement.setString(1, currentPatient.getUsername());
+            for (int i = 1; i < tokens.length; i += 2) {
+                if (i + 1 >= tokens.length) {
+                    throw new IllegalArgumentException("Missing value for " + tokens[i]);
+                }
+                String value = tokens[i + 1];
+                if (tokens[i].equals("--from-date")) {
+                    getter.fromDate(Date.valueOf(value));
+                } else if (tokens[i].equals("--limit")) {
+                    limit = Integer.parseInt(value);
+                } else if (tokens[i].equals("--after-id")) {
+                    getter.afterId(Integer.parseInt(value));
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + tokens[i]);
+                }
             }
+            // fetch one extra row to find out whether there is another page
+            getter.limit(limit > 0 ? limit + 1 : 0);
+        } catch (IllegalArgumentException e) {
+            session.println("Usage: show_appointments [--from-date <date>] [--limit <n>] [--after-id <id>]");
+            return;
+        }
 
-            ResultSet resultSet = statement.executeQuery();
-
-            while (resultSet.next()) {
-                int appointmentId = resultSet.getInt("AppointmentID");
-                String vaccineName = resultSet.getString("VaccineName");
-                Date appointmentDate = resultSet.getDate("Time");
-                String otherPartyUsername = resultSet.getString(4);
-
-                System.out.println("Appointment ID: " + appointmentId + ", Vaccine: " + vaccineName + ", Date: " + appointmentDate + ", With: " + otherPartyUsername);
+        try (Appointment.AppointmentCursor cursor = getter.stream()) {
+            int shown = 0;
+            int lastId = 0;
+            while (cursor.hasNext()) {
+                Appointment appointment = cursor.next();
+                if (limit > 0 && shown == limit) {
+                    session.println("More appointments available, continue with --after-id " + lastId);
+                    break;
+                }
+                String otherPartyUsername = session.getCurrentCaregiver() != null
+                        ? appointment.getPatientUsername() : appointment.getCaregiverUsername();
+                session.println("Appointment ID: " + appointment.getAppointmentId() + ", Vaccine: " + appointment.getVaccineName() + ", Date: " + appointment.getTime() + " " + Slot.startOf(appointment.getSlot()) + ", With: " + otherPartyUsername);
+                lastId = appointment.getAppointmentId();
+                shown++;
             }
-        } catch (SQLException e) {
-            System.out.println("Error occurred when showing appointments" + e.getMessage());
+        } catch (SQLException | IllegalStateException e) {
+            session.println("Error occurred when showing appointments" + e.getMessage());
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void logout(String[] tokens) {
+    private static void logout(Session session, String[] tokens) {
         // TODO: Part 2
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("No user is currently logged in.");
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("No user is currently logged in.");
             return;
         }
 
-        if (currentCaregiver != null) {
-            System.out.println("Logged out caregiver: " + currentCaregiver.getUsername());
-            currentCaregiver = null;
+        if (session.getCurrentCaregiver() != null) {
+            session.println("Logged out caregiver: " + session.getCurrentCaregiver().getUsername());
+            session.setCurrentCaregiver(null);
         }
 
-        if (currentPatient != null) {
-            System.out.println("Logged out patient: " + currentPatient.getUsername());
-            currentPatient = null;
+        if (session.getCurrentPatient() != null) {
+            session.println("Logged out patient: " + session.getCurrentPatient().getUsername());
+            session.setCurrentPatient(null);
         }
     }
 }
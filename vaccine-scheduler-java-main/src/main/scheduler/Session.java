@@ -0,0 +1,64 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+
+/**
+ * The state of one connected user: who is logged in and where command output goes.
+ *
+ * The CLI uses a single session on System.out; the server creates one per client connection and
+ * marks it remote, which keeps commands that touch the server's own files (import_users) off it.
+ */
+public class Session {
+
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in per session at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    private final PrintStream out;
+    private final boolean remote;
+
+    public Session(PrintStream out) {
+        this(out, false);
+    }
+
+    public Session(PrintStream out, boolean remote) {
+        this.out = out;
+        this.remote = remote;
+    }
+
+    // Getters
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+
+    public boolean isLoggedIn() {
+        return currentCaregiver != null || currentPatient != null;
+    }
+
+    public void setCurrentCaregiver(Caregiver caregiver) {
+        this.currentCaregiver = caregiver;
+    }
+
+    public void setCurrentPatient(Patient patient) {
+        this.currentPatient = patient;
+    }
+
+    public void println(String line) {
+        out.println(line);
+    }
+}
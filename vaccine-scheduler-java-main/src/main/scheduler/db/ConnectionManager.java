@@ -1,41 +1,86 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private static final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+            ".database.windows.net:1433;database=" + System.getenv("DBName") + statementPooling();
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
 
+    private ConnectionPool.PooledConnection pooled = null;
     private Connection con = null;
 
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
-        }
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    // borrows a connection from the shared pool; it must be handed back with closeConnection().
+    // Throws if none could be borrowed within the pool's acquire timeout
+    public Connection createConnection() throws SQLException {
+        pooled = PoolHolder.POOL.acquire();
+        con = pooled.getConnection();
         return con;
     }
 
+    // returns the connection to the pool rather than closing the physical connection
     public void closeConnection() {
-        try {
-            this.con.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (pooled != null) {
+            PoolHolder.POOL.release(pooled);
+            pooled = null;
+            con = null;
+        }
+    }
+
+    public static PoolStats getPoolStats() {
+        return PoolHolder.POOL.getStats();
+    }
+
+    // each pooled connection keeps its most recently used prepared statements (PoolStatementCacheSize,
+    // default 64, 0 to turn off): closing a statement hands it back to the driver, and preparing the
+    // same SQL text again reuses the server-side handle instead of parsing and planning it again
+    private static String statementPooling() {
+        int size = intSetting("PoolStatementCacheSize", 64);
+        return size > 0 ? ";disableStatementPooling=false;statementPoolingCacheSize=" + size : "";
+    }
+
+    private static int intSetting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static long longSetting(String name, long defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    // the pool is created on first use so that merely loading this class does not open connections
+    private static class PoolHolder {
+        private static final ConnectionPool POOL = createPool();
+
+        private static ConnectionPool createPool() {
+            try {
+                Class.forName(driverName);
+            } catch (ClassNotFoundException e) {
+                System.out.println(e.toString());
+            }
+            ConnectionPool pool = new ConnectionPool.Builder(connectionUrl, userName, userPass)
+                    .maxSize(intSetting("PoolMaxSize", 10))
+                    .minIdle(intSetting("PoolMinIdle", 2))
+                    .acquireTimeoutMillis(longSetting("PoolAcquireTimeoutMs", 5_000))
+                    .idleTimeoutMillis(longSetting("PoolIdleTimeoutMs", 300_000))
+                    .maxLifetimeMillis(longSetting("PoolMaxLifetimeMs", 1_800_000))
+                    .build();
+            pool.warmUp();
+            Metrics.gauge("scheduler_pool_active_connections", () -> pool.getStats().getActive());
+            Metrics.gauge("scheduler_pool_idle_connections", () -> pool.getStats().getIdle());
+            Metrics.gauge("scheduler_pool_waiting_threads", () -> pool.getStats().getWaiting());
+            Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "connection-pool-shutdown"));
+            return pool;
         }
     }
 }
@@ -0,0 +1,325 @@
+package scheduler.db;
+
+import scheduler.metrics.Histogram;
+import scheduler.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * At most maxSize connections exist at any time. Idle connections are kept in a LIFO deque so the
+ * most recently used (and therefore most likely still healthy) connection is handed out first.
+ * A background housekeeper evicts connections that have been idle for too long or have outlived
+ * their max lifetime, and tops the pool back up to minIdle.
+ */
+public class ConnectionPool {
+
+    // connections idle for less than this are handed out without a round trip to validate them
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private static final Histogram ACQUIRE_TIME = Metrics.histogram("scheduler_pool_acquire_seconds");
+    private static final LongAdder TIMEOUTS = Metrics.counter("scheduler_pool_timeouts_total");
+
+    private final String url;
+    private final String userName;
+    private final String userPass;
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireWaitNanos = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    private ConnectionPool(Builder builder) {
+        this.url = builder.url;
+        this.userName = builder.userName;
+        this.userPass = builder.userPass;
+        this.maxSize = builder.maxSize;
+        this.minIdle = Math.min(builder.minIdle, builder.maxSize);
+        this.acquireTimeoutMillis = builder.acquireTimeoutMillis;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.maxLifetimeMillis = builder.maxLifetimeMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, builder.housekeepingPeriodMillis);
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens minIdle connections up front so the first commands after startup do not pay for the
+     * login handshake.
+     */
+    public void warmUp() {
+        fillToMinIdle();
+    }
+
+    /**
+     * Borrows a connection, blocking for at most the configured acquire timeout.
+     */
+    public PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        boolean permitted;
+        try {
+            permitted = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        if (!permitted) {
+            timeoutCount.increment();
+            TIMEOUTS.increment();
+            acquireWaitNanos.add(System.nanoTime() - start);
+            throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis
+                    + "ms waiting for a connection (" + getStats() + ")");
+        }
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    break;
+                }
+                discard(pooled);
+            }
+            if (pooled == null) {
+                pooled = open();
+            }
+            active.incrementAndGet();
+            acquireCount.increment();
+            acquireWaitNanos.add(System.nanoTime() - start);
+            ACQUIRE_TIME.recordSince(start);
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Any open transaction is rolled back so the next borrower
+     * always starts from a clean, autocommitting connection.
+     */
+    public void release(PooledConnection pooled) {
+        if (pooled == null) {
+            return;
+        }
+        active.decrementAndGet();
+        try {
+            Connection con = pooled.getConnection();
+            boolean reusable = !closed && !con.isClosed() && !isExpired(pooled, System.currentTimeMillis());
+            if (reusable && !con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            if (reusable) {
+                pooled.markReturned();
+                idle.offerFirst(pooled);
+            } else {
+                discard(pooled);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public PoolStats getStats() {
+        return new PoolStats(total.get(), active.get(), idle.size(), permits.getQueueLength(), maxSize,
+                acquireCount.sum(), acquireWaitNanos.sum(), timeoutCount.sum(), createdCount.sum(),
+                evictedCount.sum());
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection con = DriverManager.getConnection(url, userName, userPass);
+        total.incrementAndGet();
+        createdCount.increment();
+        return new PooledConnection(con);
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (isExpired(pooled, now)) {
+            return false;
+        }
+        if (now - pooled.getLastReturnedAt() < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled, long now) {
+        return maxLifetimeMillis > 0 && now - pooled.getCreatedAt() >= maxLifetimeMillis;
+    }
+
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        evictedCount.increment();
+        try {
+            pooled.getConnection().close();
+        } catch (SQLException e) {
+            // the connection is being thrown away, nothing more to do
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> snapshot = new ArrayList<>(idle);
+        int idleCount = snapshot.size();
+        for (PooledConnection pooled : snapshot) {
+            boolean idleTooLong = idleTimeoutMillis > 0 && idleCount > minIdle
+                    && now - pooled.getLastReturnedAt() >= idleTimeoutMillis;
+            if ((idleTooLong || isExpired(pooled, now)) && idle.remove(pooled)) {
+                idleCount--;
+                discard(pooled);
+            }
+        }
+        fillToMinIdle();
+    }
+
+    private void fillToMinIdle() {
+        while (!closed && idle.size() < minIdle && permits.tryAcquire()) {
+            try {
+                if (idle.size() >= minIdle) {
+                    return;
+                }
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                System.out.println("Error occurred when warming up the connection pool: " + e.getMessage());
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * A physical connection together with the bookkeeping the pool needs to evict it.
+     */
+    public static class PooledConnection {
+        private final Connection connection;
+        private final long createdAt;
+        private volatile long lastReturnedAt;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.createdAt = System.currentTimeMillis();
+            this.lastReturnedAt = createdAt;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        long getCreatedAt() {
+            return createdAt;
+        }
+
+        long getLastReturnedAt() {
+            return lastReturnedAt;
+        }
+
+        void markReturned() {
+            this.lastReturnedAt = System.currentTimeMillis();
+        }
+    }
+
+    public static class Builder {
+        private final String url;
+        private final String userName;
+        private final String userPass;
+        private int maxSize = 10;
+        private int minIdle = 2;
+        private long acquireTimeoutMillis = 5_000;
+        private long idleTimeoutMillis = 300_000;
+        private long maxLifetimeMillis = 1_800_000;
+        private long housekeepingPeriodMillis = 30_000;
+
+        public Builder(String url, String userName, String userPass) {
+            this.url = url;
+            this.userName = userName;
+            this.userPass = userPass;
+        }
+
+        public Builder maxSize(int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("Pool size must be positive!");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder minIdle(int minIdle) {
+            this.minIdle = Math.max(0, minIdle);
+            return this;
+        }
+
+        public Builder acquireTimeoutMillis(long acquireTimeoutMillis) {
+            this.acquireTimeoutMillis = acquireTimeoutMillis;
+            return this;
+        }
+
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        public Builder maxLifetimeMillis(long maxLifetimeMillis) {
+            this.maxLifetimeMillis = maxLifetimeMillis;
+            return this;
+        }
+
+        public Builder housekeepingPeriodMillis(long housekeepingPeriodMillis) {
+            this.housekeepingPeriodMillis = housekeepingPeriodMillis;
+            return this;
+        }
+
+        public ConnectionPool build() {
+            return new ConnectionPool(this);
+        }
+    }
+}
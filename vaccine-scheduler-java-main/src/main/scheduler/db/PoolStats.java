@@ -0,0 +1,92 @@
+package scheduler.db;
+
+/**
+ * A point-in-time snapshot of the connection pool's counters.
+ */
+public class PoolStats {
+    private final int total;
+    private final int active;
+    private final int idle;
+    private final int waiting;
+    private final int maxSize;
+    private final long acquireCount;
+    private final long acquireWaitNanos;
+    private final long timeoutCount;
+    private final long createdCount;
+    private final long evictedCount;
+
+    PoolStats(int total, int active, int idle, int waiting, int maxSize, long acquireCount,
+              long acquireWaitNanos, long timeoutCount, long createdCount, long evictedCount) {
+        this.total = total;
+        this.active = active;
+        this.idle = idle;
+        this.waiting = waiting;
+        this.maxSize = maxSize;
+        this.acquireCount = acquireCount;
+        this.acquireWaitNanos = acquireWaitNanos;
+        this.timeoutCount = timeoutCount;
+        this.createdCount = createdCount;
+        this.evictedCount = evictedCount;
+    }
+
+    // Getters
+    public int getTotal() {
+        return total;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getWaiting() {
+        return waiting;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount;
+    }
+
+    public long getAcquireWaitNanos() {
+        return acquireWaitNanos;
+    }
+
+    public double getAverageWaitMillis() {
+        return acquireCount == 0 ? 0 : acquireWaitNanos / 1_000_000.0 / acquireCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{" +
+                "total=" + total +
+                ", active=" + active +
+                ", idle=" + idle +
+                ", waiting=" + waiting +
+                ", maxSize=" + maxSize +
+                ", acquires=" + acquireCount +
+                ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", timeouts=" + timeoutCount +
+                ", created=" + createdCount +
+                ", evicted=" + evictedCount +
+                '}';
+    }
+}
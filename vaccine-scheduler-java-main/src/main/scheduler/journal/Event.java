@@ -0,0 +1,119 @@
+package scheduler.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One state change recorded in the journal: what happened, when, and its fields in the order
+ * documented on each Type.
+ *
+ * Encoded as [type byte][timestamp long][field count short] followed by each field as
+ * [length short][UTF-8 bytes]. The journal frames this with a length and a checksum.
+ */
+public class Event {
+
+    public enum Type {
+        // account type, username
+        ACCOUNT_CREATED(1),
+        // account type, username
+        CREDENTIALS_UPDATED(2),
+        // vaccine, doses added
+        DOSES_ADDED(3),
+        // vaccine, doses taken
+        DOSES_TAKEN(4),
+        // caregiver, date, slot
+        AVAILABILITY_ADDED(5),
+        // appointment id, date, patient, caregiver, vaccine, slot
+        APPOINTMENT_RESERVED(6),
+        // appointment id, date, patient, caregiver, vaccine, slot
+        APPOINTMENT_CANCELLED(7),
+        // caregiver, date: the caregiver's free slots on that date were withdrawn
+        AVAILABILITY_WITHDRAWN(8);
+
+        private final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        static Type fromCode(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown event type " + code);
+        }
+    }
+
+    private final Type type;
+    private final long timestampMillis;
+    private final String[] fields;
+
+    public Event(Type type, long timestampMillis, String... fields) {
+        this.type = type;
+        this.timestampMillis = timestampMillis;
+        this.fields = fields;
+    }
+
+    public static Event now(Type type, String... fields) {
+        return new Event(type, System.currentTimeMillis(), fields);
+    }
+
+    // Getters
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public String getField(int index) {
+        return fields[index];
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    byte[] encode() {
+        byte[][] encoded = new byte[fields.length][];
+        int size = 1 + 8 + 2;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            if (encoded[i].length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Event field too long: " + encoded[i].length + " bytes");
+            }
+            size += 2 + encoded[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(type.code).putLong(timestampMillis).putShort((short) fields.length);
+        for (byte[] field : encoded) {
+            buffer.putShort((short) field.length).put(field);
+        }
+        return buffer.array();
+    }
+
+    static Event decode(ByteBuffer payload) {
+        Type type = Type.fromCode(payload.get());
+        long timestampMillis = payload.getLong();
+        String[] fields = new String[payload.getShort()];
+        for (int i = 0; i < fields.length; i++) {
+            byte[] field = new byte[payload.getShort()];
+            payload.get(field);
+            fields[i] = new String(field, StandardCharsets.UTF_8);
+        }
+        return new Event(type, timestampMillis, fields);
+    }
+
+    @Override
+    public String toString() {
+        return "Event{" +
+                "type=" + type +
+                ", timestampMillis=" + timestampMillis +
+                ", fields=" + Arrays.toString(fields) +
+                '}';
+    }
+}
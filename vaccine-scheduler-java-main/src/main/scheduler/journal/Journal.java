@@ -0,0 +1,222 @@
+package scheduler.journal;
+
+import scheduler.metrics.Histogram;
+import scheduler.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of state changes, written behind the commands that cause them.
+ *
+ * append() only puts the event on a queue, so a command never waits for the disk. A single writer
+ * thread takes whatever has queued up, appends it to the current segment and then forces the
+ * segment to disk once for the whole batch (group commit): under load one sync covers many
+ * events, and when idle each event is synced on its own.
+ *
+ * Segments are files named journal-<index>.seg of a fixed size, memory-mapped for writing. Each
+ * starts with a magic number followed by records of [length int][CRC32 int][encoded Event]; the
+ * zero-filled rest of the file marks the end. When a record no longer fits, the writer rolls over
+ * to the next segment. On open the last segment is scanned and appending continues after its last
+ * valid record, overwriting whatever a crash left half written.
+ *
+ * Events still queued when the process dies without close() are lost; the journal is an audit
+ * trail next to the database, not its write-ahead log.
+ */
+public class Journal implements AutoCloseable {
+
+    static final int MAGIC = 0x534A4E4C;
+    static final int SEGMENT_HEADER = 4;
+    static final int RECORD_HEADER = 8;
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int MAX_BATCH = 1024;
+    // handed to the writer by close(); never written
+    private static final Event STOP = new Event(Event.Type.ACCOUNT_CREATED, 0);
+
+    private static final LongAdder EVENTS = Metrics.counter("scheduler_journal_events_total");
+    private static final LongAdder ERRORS = Metrics.counter("scheduler_journal_errors_total");
+    private static final Histogram COMMIT_TIME = Metrics.histogram("scheduler_journal_commit_seconds");
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final BlockingQueue<Event> queue;
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    // owned by the writer thread after open()
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    private final CRC32 crc = new CRC32();
+
+    private Journal(Path directory, int segmentBytes, int queueCapacity) {
+        if (segmentBytes < 64 * 1024) {
+            throw new IllegalArgumentException("Segments must be at least 64 KB!");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this::run, "journal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Opens (or creates) the journal in the directory and starts its writer thread.
+     */
+    public static Journal open(Path directory, int segmentBytes, int queueCapacity) throws IOException {
+        Journal journal = new Journal(directory, segmentBytes, queueCapacity);
+        journal.recover();
+        journal.writer.start();
+        Metrics.gauge("scheduler_journal_queue_depth", journal.queue::size);
+        return journal;
+    }
+
+    /**
+     * Queues an event for writing. Only blocks if the writer has fallen a whole queue behind. An
+     * event appended after close() is counted as an error and dropped: the change it records has
+     * already been made, so failing the caller would only hide that.
+     */
+    public void append(Event event) {
+        if (closed) {
+            ERRORS.increment();
+            System.err.println("Journal is closed, dropping " + event.getType() + " event");
+            return;
+        }
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ERRORS.increment();
+        }
+    }
+
+    /**
+     * Writes every queued event, syncs and stops the writer.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(STOP);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> segments = JournalReader.segments(directory);
+        if (segments.isEmpty()) {
+            openSegment(0, SEGMENT_HEADER);
+            return;
+        }
+        Path last = segments.get(segments.size() - 1);
+        String name = last.getFileName().toString();
+        int index = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        int end = JournalReader.scan(last, event -> { });
+        openSegment(index, end);
+        // clear whatever a crash left after the last valid record so it can never be read back
+        while (segment.hasRemaining()) {
+            segment.put((byte) 0);
+        }
+        segment.position(end);
+    }
+
+    private void openSegment(int index, int position) throws IOException {
+        Path file = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segmentIndex = index;
+        if (position == SEGMENT_HEADER) {
+            segment.putInt(0, MAGIC);
+        }
+        segment.position(position);
+    }
+
+    private void run() {
+        List<Event> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                // only close() stops the writer, so that no queued event is dropped
+                continue;
+            }
+            long start = System.nanoTime();
+            // each event on its own, so a failed write neither drops the rest of the batch nor
+            // hides a STOP behind it
+            for (Event event : batch) {
+                if (event == STOP) {
+                    stopping = true;
+                    continue;
+                }
+                try {
+                    write(event.encode());
+                    EVENTS.increment();
+                } catch (IOException | RuntimeException e) {
+                    ERRORS.increment();
+                    e.printStackTrace();
+                }
+            }
+            try {
+                segment.force();
+            } catch (RuntimeException e) {
+                ERRORS.increment();
+                e.printStackTrace();
+            } finally {
+                COMMIT_TIME.recordSince(start);
+                batch.clear();
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the mapped data has been forced already
+        }
+    }
+
+    private void write(byte[] payload) throws IOException {
+        if (RECORD_HEADER + payload.length > segmentBytes - SEGMENT_HEADER) {
+            throw new IllegalArgumentException("Event of " + payload.length + " bytes does not fit in a segment");
+        }
+        if (segment.remaining() < RECORD_HEADER + payload.length) {
+            roll();
+        }
+        crc.reset();
+        crc.update(payload);
+        // the length goes in last so a reader never sees a complete length over a partial record
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putInt((int) crc.getValue());
+        segment.put(payload);
+        segment.putInt(start, payload.length);
+    }
+
+    private void roll() throws IOException {
+        segment.force();
+        channel.close();
+        openSegment(segmentIndex + 1, SEGMENT_HEADER);
+    }
+}
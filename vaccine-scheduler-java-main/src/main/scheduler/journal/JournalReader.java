@@ -0,0 +1,95 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the events of a journal directory back in the order they were written.
+ *
+ * A segment ends at the first record whose length is zero (the unwritten, zero-filled rest of the
+ * file), runs past the end of the file or fails its checksum. The last case is a record that was
+ * only partly written when the process died; nothing after it in that segment is trusted.
+ */
+public final class JournalReader {
+
+    private JournalReader() {
+    }
+
+    /**
+     * Passes every event in the directory to the consumer, oldest first.
+     */
+    public static void forEach(Path directory, Consumer<Event> consumer) throws IOException {
+        for (Path segment : segments(directory)) {
+            scan(segment, consumer);
+        }
+    }
+
+    /**
+     * Returns the segment files of a journal directory in write order.
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Journal.SEGMENT_PREFIX + "*"
+                + Journal.SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        // the index is zero-padded, so name order is write order
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Reads one segment and returns the position just after its last valid record.
+     */
+    static int scan(Path segment, Consumer<Event> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < Journal.SEGMENT_HEADER) {
+                throw new IOException(segment + " is not a journal segment");
+            }
+            int magic = buffer.getInt();
+            if (magic == 0) {
+                // rolled over to but never synced before the process died
+                return Journal.SEGMENT_HEADER;
+            }
+            if (magic != Journal.MAGIC) {
+                throw new IOException(segment + " is not a journal segment");
+            }
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= Journal.RECORD_HEADER) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    return start;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    return start;
+                }
+                consumer.accept(Event.decode(payload));
+                buffer.position(start + Journal.RECORD_HEADER + length);
+            }
+            return buffer.position();
+        }
+    }
+}
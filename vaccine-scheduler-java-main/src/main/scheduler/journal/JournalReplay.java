@@ -0,0 +1,175 @@
+package scheduler.journal;
+
+import scheduler.store.Slot;
+import scheduler.store.Stores;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Rebuilds the dose totals, the booked appointments and the free availability slots from a
+ * journal, assuming the journal was started against an empty database.
+ *
+ * Events are applied in journal order. Two commands may have been journalled in the opposite
+ * order of their effects (a cancel journalled before the reservation it cancels, when the two ran
+ * on different threads), so a cancelled appointment id is remembered and its reservation ignored
+ * whenever it shows up. Events journalled before appointments had time slots carry no slot and
+ * are replayed for the whole day, when a caregiver was free or booked for the whole day, as the
+ * schema migration does with existing free days.
+ *
+ * With --compare the rebuilt dose totals and free slots are checked against the configured store
+ * and every difference is printed; the exit status is 1 if there are any.
+ *
+ * usage: java scheduler.journal.JournalReplay <journal directory> [--compare]
+ */
+public class JournalReplay {
+
+    private final SortedMap<String, Integer> doses = new TreeMap<>();
+    // appointment id -> event fields (id, date, patient, caregiver, vaccine[, slot])
+    private final SortedMap<Integer, String[]> appointments = new TreeMap<>();
+    private final Set<Integer> cancelled = new HashSet<>();
+    // "date time caregiver"
+    private final Set<String> freeSlots = new TreeSet<>();
+    private final Map<Event.Type, Integer> counts = new EnumMap<>(Event.Type.class);
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 1) {
+            System.out.println("usage: java scheduler.journal.JournalReplay <journal directory> [--compare]");
+            System.exit(2);
+        }
+        JournalReplay replay = new JournalReplay();
+        JournalReader.forEach(Paths.get(args[0]), replay::apply);
+        replay.print();
+        if (Arrays.asList(args).contains("--compare") && replay.compare() > 0) {
+            System.exit(1);
+        }
+    }
+
+    public void apply(Event event) {
+        counts.merge(event.getType(), 1, Integer::sum);
+        switch (event.getType()) {
+            case DOSES_ADDED:
+                doses.merge(event.getField(0), Integer.parseInt(event.getField(1)), Integer::sum);
+                break;
+            case DOSES_TAKEN:
+                doses.merge(event.getField(0), -Integer.parseInt(event.getField(1)), Integer::sum);
+                break;
+            case AVAILABILITY_ADDED:
+                free(event.getField(1), slots(event, 2), event.getField(0));
+                break;
+            case AVAILABILITY_WITHDRAWN:
+                for (int slot = 0; slot < Slot.PER_DAY; slot++) {
+                    freeSlots.remove(slotKey(event.getField(1), slot, event.getField(0)));
+                }
+                break;
+            case APPOINTMENT_RESERVED: {
+                int id = Integer.parseInt(event.getField(0));
+                if (cancelled.contains(id)) {
+                    break;
+                }
+                appointments.put(id, fields(event));
+                book(event.getField(1), slots(event, 5), event.getField(3));
+                doses.merge(event.getField(4), -1, Integer::sum);
+                break;
+            }
+            case APPOINTMENT_CANCELLED: {
+                int id = Integer.parseInt(event.getField(0));
+                cancelled.add(id);
+                if (appointments.remove(id) == null) {
+                    // journalled ahead of its reservation, which will be skipped
+                    break;
+                }
+                free(event.getField(1), slots(event, 5), event.getField(3));
+                doses.merge(event.getField(4), 1, Integer::sum);
+                break;
+            }
+            default:
+                // accounts and credentials do not affect doses or appointments
+                break;
+        }
+    }
+
+    public void print() {
+        counts.forEach((type, count) -> System.out.println("Events: " + type + " - " + count));
+        doses.forEach((vaccine, count) -> System.out.println("Vaccine: " + vaccine + " - Doses: " + count));
+        for (String[] appointment : appointments.values()) {
+            System.out.println("Appointment ID: " + appointment[0] + " - Date: " + appointment[1] + " "
+                    + Slot.startOf(appointment.length > 5 ? Integer.parseInt(appointment[5]) : 0)
+                    + " - Patient: " + appointment[2] + " - Caregiver: " + appointment[3]
+                    + " - Vaccine: " + appointment[4]);
+        }
+        System.out.println("Free slots: " + freeSlots.size());
+    }
+
+    // prints every difference from the configured store and returns how many there were
+    private int compare() throws SQLException {
+        int differences = 0;
+        SortedMap<String, Integer> stock = Stores.get().vaccineStock();
+        Set<String> vaccines = new TreeSet<>(stock.keySet());
+        vaccines.addAll(doses.keySet());
+        for (String vaccine : vaccines) {
+            Integer expected = doses.get(vaccine);
+            Integer actual = stock.get(vaccine);
+            if (!Objects.equals(expected, actual)) {
+                System.out.println("Mismatch: Vaccine: " + vaccine + " - journal " + expected + " - store " + actual);
+                differences++;
+            }
+        }
+        Set<String> storeSlots = new TreeSet<>();
+        for (Slot slot : Stores.get().freeSlots(null)) {
+            storeSlots.add(slotKey(slot.getTime().toString(), slot.getSlot(), slot.getCaregiverUsername()));
+        }
+        for (String slot : freeSlots) {
+            if (!storeSlots.remove(slot)) {
+                System.out.println("Mismatch: free slot " + slot + " only in the journal");
+                differences++;
+            }
+        }
+        for (String slot : storeSlots) {
+            System.out.println("Mismatch: free slot " + slot + " only in the store");
+            differences++;
+        }
+        System.out.println(differences == 0 ? "Journal matches the store." : differences + " differences.");
+        return differences;
+    }
+
+    private static String slotKey(String date, int slot, String caregiver) {
+        return date + " " + Slot.startOf(slot) + " " + caregiver;
+    }
+
+    // the slot field at the index as a bitmap, or the whole day for events journalled before there
+    // were slots
+    private static long slots(Event event, int index) {
+        return index < event.getFieldCount() ? 1L << Integer.parseInt(event.getField(index)) : Slot.WHOLE_DAY;
+    }
+
+    private void free(String date, long slots, String caregiver) {
+        for (long rest = slots; rest != 0; rest &= rest - 1) {
+            freeSlots.add(slotKey(date, Long.numberOfTrailingZeros(rest), caregiver));
+        }
+    }
+
+    private void book(String date, long slots, String caregiver) {
+        for (long rest = slots; rest != 0; rest &= rest - 1) {
+            freeSlots.remove(slotKey(date, Long.numberOfTrailingZeros(rest), caregiver));
+        }
+    }
+
+    private static String[] fields(Event event) {
+        String[] fields = new String[event.getFieldCount()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = event.getField(i);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,96 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with fixed buckets.
+ *
+ * Recording is a short scan over the bucket bounds plus two LongAdder increments, so it can sit on
+ * every hot path without contention; readers get a consistent-enough view by summing the adders.
+ */
+public class Histogram {
+
+    // bucket upper bounds in seconds, the usual Prometheus latency ladder
+    static final double[] BOUNDS_SECONDS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+            BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * 1_000_000_000L);
+        }
+    }
+
+    // one counter per bucket plus the overflow (+Inf) bucket
+    private final LongAdder[] counts = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    // records the time elapsed since a System.nanoTime() start value
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the per-bucket counts (not cumulative); the last entry is the overflow bucket.
+     */
+    public long[] getCounts() {
+        long[] snapshot = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder adder : counts) {
+            count += adder.sum();
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Estimates a quantile (0..1) in seconds as the upper bound of the bucket it falls into.
+     * Returns NaN for an empty histogram and +Infinity if it falls into the overflow bucket.
+     */
+    public double quantileSeconds(double quantile) {
+        long[] snapshot = getCounts();
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return BOUNDS_SECONDS[i];
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
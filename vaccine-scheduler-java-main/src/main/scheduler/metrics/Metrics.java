@@ -0,0 +1,171 @@
+package scheduler.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The process-wide metrics registry.
+ *
+ * Metrics are identified by a family name and one label, e.g. scheduler_command_seconds with
+ * command="reserve". Looking a metric up is a lock-free map read, and hot paths that always use
+ * the same metric keep the returned Histogram or LongAdder in a static field.
+ *
+ * Families in use:
+ *   scheduler_command_seconds{command}      latency of every command line, by command
+ *   scheduler_command_errors_total{command} commands that failed with an unexpected exception
+ *   scheduler_store_seconds{operation}      latency of every store operation (one SQL statement
+ *                                           or batch on SQL Server)
+ *   scheduler_store_errors_total{operation} store operations that threw
+ *   scheduler_pool_acquire_seconds          time to borrow a pooled connection
+ *   scheduler_pool_timeouts_total           borrows that timed out
+ *   scheduler_hash_seconds                  one PBKDF2 derivation (hash or verify)
+ *   scheduler_credential_cache_total{result} credential lookups: hit, negative_hit (cached unknown
+ *                                           username) or miss
+ *   scheduler_credential_cache_evictions_total entries dropped because the cache was full
+ *   scheduler_credential_cache_entries      entries currently cached
+ *   scheduler_journal_events_total          events written to the journal
+ *   scheduler_journal_errors_total          events or syncs that failed to write, or were dropped after close
+ *   scheduler_journal_commit_seconds        one group commit: writing a batch and syncing it
+ *   scheduler_journal_queue_depth           events waiting for the journal writer
+ *   scheduler_reserve_batches_total         reservation batches booked by the BatchAllocator
+ *   scheduler_reserve_batched_total         reservations booked in those batches
+ *   scheduler_sync_deltas_total{outcome}    offline deltas sent to the central database, by outcome
+ *                                           (applied, already_applied, adjusted, rejected)
+ *   scheduler_sync_seconds                  one sync of an offline store with the central database
+ *   scheduler_sync_pending_deltas           offline deltas waiting to be sent
+ *   scheduler_sync_online                   1 if the last sync reached the central database
+ */
+public final class Metrics {
+
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<Number>> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Histogram histogram(String family) {
+        return HISTOGRAMS.computeIfAbsent(family, k -> new Histogram());
+    }
+
+    public static Histogram histogram(String family, String label, String value) {
+        String key = key(family, label, value);
+        Histogram histogram = HISTOGRAMS.get(key);
+        return histogram != null ? histogram : HISTOGRAMS.computeIfAbsent(key, k -> new Histogram());
+    }
+
+    public static LongAdder counter(String family) {
+        return COUNTERS.computeIfAbsent(family, k -> new LongAdder());
+    }
+
+    public static LongAdder counter(String family, String label, String value) {
+        String key = key(family, label, value);
+        LongAdder counter = COUNTERS.get(key);
+        return counter != null ? counter : COUNTERS.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    /**
+     * Registers a value that is read when metrics are exported, e.g. the pool's idle connections.
+     */
+    public static void gauge(String family, Supplier<Number> value) {
+        GAUGES.put(family, value);
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        String lastFamily = null;
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            String family = family(entry.getKey());
+            if (!family.equals(lastFamily)) {
+                out.append("# TYPE ").append(family).append(" histogram\n");
+                lastFamily = family;
+            }
+            String labels = labels(entry.getKey());
+            Histogram histogram = entry.getValue();
+            long[] counts = histogram.getCounts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le = i < Histogram.BOUNDS_SECONDS.length ? format(Histogram.BOUNDS_SECONDS[i]) : "+Inf";
+                out.append(family).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+                        .append("le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(family).append("_sum").append(braces(labels)).append(' ')
+                    .append(format(histogram.getSumNanos() / 1e9)).append('\n');
+            out.append(family).append("_count").append(braces(labels)).append(' ').append(cumulative).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(COUNTERS).entrySet()) {
+            String family = family(entry.getKey());
+            if (!family.equals(lastFamily)) {
+                out.append("# TYPE ").append(family).append(" counter\n");
+                lastFamily = family;
+            }
+            out.append(family).append(braces(labels(entry.getKey()))).append(' ')
+                    .append(entry.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Supplier<Number>> entry : new TreeMap<>(GAUGES).entrySet()) {
+            out.append("# TYPE ").append(entry.getKey()).append(" gauge\n");
+            out.append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Summarizes every histogram with a non-zero count on one line each, for the periodic log dump.
+     */
+    public static String summary() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            Histogram histogram = entry.getValue();
+            long count = histogram.getCount();
+            if (count == 0) {
+                continue;
+            }
+            out.append(String.format(Locale.ROOT, "%s count=%d mean_ms=%.3f p50_ms<=%s p99_ms<=%s%n",
+                    entry.getKey(), count, histogram.getSumNanos() / 1e6 / count,
+                    format(histogram.quantileSeconds(0.5) * 1000), format(histogram.quantileSeconds(0.99) * 1000)));
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(COUNTERS).entrySet()) {
+            long value = entry.getValue().sum();
+            if (value > 0) {
+                out.append(entry.getKey()).append(' ').append(value).append(System.lineSeparator());
+            }
+        }
+        return out.toString();
+    }
+
+    private static String key(String family, String label, String value) {
+        return family + "{" + label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    private static String family(String key) {
+        int brace = key.indexOf('{');
+        return brace < 0 ? key : key.substring(0, brace);
+    }
+
+    private static String labels(String key) {
+        int brace = key.indexOf('{');
+        return brace < 0 ? "" : key.substring(brace + 1, key.length() - 1);
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String format(double value) {
+        if (Double.isInfinite(value)) {
+            return "+Inf";
+        }
+        String text = String.format(Locale.ROOT, "%.6f", value);
+        // trim trailing zeros so bucket bounds read 0.0001 rather than 0.000100
+        text = text.replaceAll("0+$", "");
+        return text.endsWith(".") ? text.substring(0, text.length() - 1) : text;
+    }
+}
@@ -0,0 +1,88 @@
+package scheduler.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the Metrics registry.
+ *
+ * With MetricsPort set, GET http://127.0.0.1:<MetricsPort>/metrics returns the Prometheus text
+ * format; the endpoint only listens on the loopback interface. With MetricsLogSeconds set, a
+ * summary of every non-empty metric is written to standard error at that interval. Both are off
+ * by default.
+ */
+public final class MetricsExporter {
+
+    private static boolean started = false;
+
+    private MetricsExporter() {
+    }
+
+    public static synchronized void startFromEnvironment() {
+        if (started) {
+            return;
+        }
+        started = true;
+        String port = System.getenv("MetricsPort");
+        if (port != null) {
+            try {
+                startHttp(Integer.parseInt(port.trim()));
+            } catch (IOException e) {
+                System.out.println("Error occurred when starting the metrics endpoint: " + e.getMessage());
+            }
+        }
+        String seconds = System.getenv("MetricsLogSeconds");
+        if (seconds != null && Integer.parseInt(seconds.trim()) > 0) {
+            startLogDump(Integer.parseInt(seconds.trim()));
+        }
+    }
+
+    public static HttpServer startHttp(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> daemon(r, "metrics-http")));
+        // the server's dispatcher thread inherits the daemon flag of the thread that starts it, so
+        // start it from a daemon thread or the JVM would never exit after quit
+        Thread starter = daemon(server::start, "metrics-http-start");
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return server;
+    }
+
+    public static ScheduledExecutorService startLogDump(int seconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "metrics-log"));
+        dumper.scheduleAtFixedRate(() -> {
+            String summary = Metrics.summary();
+            if (!summary.isEmpty()) {
+                System.err.print("[metrics " + LocalDateTime.now().withNano(0) + "]" + System.lineSeparator() + summary);
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+        return dumper;
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -0,0 +1,158 @@
+package scheduler.model;
+
+import scheduler.store.AccountType;
+import scheduler.store.Stores;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Iterator;
+
+public class Appointment {
+    private final int appointmentId;
+    private final Date time;
+    private final String patientUsername;
+    private final String caregiverUsername;
+    private final String vaccineName;
+    private final int slot;
+
+    private Appointment(AppointmentBuilder builder) {
+        this.appointmentId = builder.appointmentId;
+        this.time = builder.time;
+        this.patientUsername = builder.patientUsername;
+        this.caregiverUsername = builder.caregiverUsername;
+        this.vaccineName = builder.vaccineName;
+        this.slot = builder.slot;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    // the slot of the day (see scheduler.store.Slot)
+    public int getSlot() {
+        return slot;
+    }
+
+    public static class AppointmentBuilder {
+        private final int appointmentId;
+        private final Date time;
+        private final String patientUsername;
+        private final String caregiverUsername;
+        private final String vaccineName;
+        private int slot = 0;
+
+        public AppointmentBuilder(int appointmentId, Date time, String patientUsername, String caregiverUsername,
+                                  String vaccineName) {
+            this.appointmentId = appointmentId;
+            this.time = time;
+            this.patientUsername = patientUsername;
+            this.caregiverUsername = caregiverUsername;
+            this.vaccineName = vaccineName;
+        }
+
+        public AppointmentBuilder slot(int slot) {
+            this.slot = slot;
+            return this;
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+
+    /**
+     * Looks up the appointments of one caregiver or patient a page at a time.
+     *
+     * Paging is keyset based (AppointmentID > afterId), so fetching a late page costs the same as
+     * fetching the first one, and results are streamed through an AppointmentCursor instead of
+     * being materialized.
+     */
+    public static class AppointmentGetter {
+        private static final int DEFAULT_FETCH_SIZE = configuredFetchSize();
+
+        private final AccountType party;
+        private final String username;
+        private Date fromDate = null;
+        private int afterId = 0;
+        private int limit = 0;
+        private int fetchSize = DEFAULT_FETCH_SIZE;
+
+        private AppointmentGetter(AccountType party, String username) {
+            this.party = party;
+            this.username = username;
+        }
+
+        public static AppointmentGetter forCaregiver(String username) {
+            return new AppointmentGetter(AccountType.CAREGIVER, username);
+        }
+
+        public static AppointmentGetter forPatient(String username) {
+            return new AppointmentGetter(AccountType.PATIENT, username);
+        }
+
+        // only appointments on or after this date
+        public AppointmentGetter fromDate(Date fromDate) {
+            this.fromDate = fromDate;
+            return this;
+        }
+
+        // only appointments with a larger id, i.e. the page after the one ending at afterId
+        public AppointmentGetter afterId(int afterId) {
+            this.afterId = afterId;
+            return this;
+        }
+
+        // at most this many appointments; 0 means no limit
+        public AppointmentGetter limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Limit cannot be negative!");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public AppointmentGetter fetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Runs the query and returns a cursor over the matching appointments, ordered by id. The
+         * cursor may hold a database connection until it is closed.
+         */
+        public AppointmentCursor stream() throws SQLException {
+            return Stores.get().findAppointments(party, username, fromDate, afterId, limit, fetchSize);
+        }
+
+        private static int configuredFetchSize() {
+            String value = System.getenv("FetchSize");
+            return value == null ? 100 : Integer.parseInt(value.trim());
+        }
+    }
+
+    /**
+     * A lazily evaluated sequence of appointments, e.g. backed by an open ResultSet.
+     */
+    public interface AppointmentCursor extends Iterator<Appointment>, AutoCloseable {
+        // releases the underlying resources; never fails
+        @Override
+        void close();
+    }
+}
@@ -1,10 +1,20 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.store.AccountType;
+import scheduler.store.Credentials;
+import scheduler.store.SchedulerStore;
+import scheduler.store.Slot;
+import scheduler.store.Stores;
 import scheduler.util.Util;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class Caregiver {
     private final String username;
@@ -37,49 +47,52 @@ public class Caregiver {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Stores.get().insertAccount(AccountType.CAREGIVER, new Credentials(this.username, this.salt, this.hash));
+    }
+
+    public UploadResult uploadAvailability(Date d) throws SQLException {
+        return uploadAvailability(Collections.singletonList(d), Slot.WHOLE_DAY);
+    }
+
+    public UploadResult uploadAvailability(Date d, long slots) throws SQLException {
+        return uploadAvailability(Collections.singletonList(d), slots);
     }
 
-    public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Appointments (Time, CaregiverUsername) VALUES (?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException("Error uploading availability: " + e.getMessage(), e);
-        } finally {
-            cm.closeConnection();
+    /**
+     * Uploads the given slots (a bitmap, see Slot) on many dates at once. Slots the caregiver is
+     * already free or booked in (or on dates that appear twice in the input) are reported as
+     * duplicates instead of failing the whole upload.
+     */
+    public UploadResult uploadAvailability(Collection<Date> dates, long slots) throws SQLException {
+        SortedSet<Date> requested = new TreeSet<>(dates);
+        UploadResult result = new UploadResult();
+        if (requested.isEmpty()) {
+            return result;
+        }
+        int perDate = Long.bitCount(slots & Slot.WHOLE_DAY);
+        if (requested.size() < dates.size()) {
+            result.duplicates += (dates.size() - requested.size()) * perDate;
         }
+        List<Slot> uploaded = Stores.get().addAvailability(this.username, requested, slots);
+        result.uploaded.addAll(uploaded);
+        result.duplicates += requested.size() * perDate - uploaded.size();
+        return result;
     }
 
-    private int generateUniqueAppointmentId(Connection con) throws SQLException {
-        String query = "SELECT MAX(AppointmentID) FROM Appointments";
-        try (PreparedStatement statement = con.prepareStatement(query)) {
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getInt(1) + 1;
-            } else {
-                return 1; // If table is empty, start with ID 1
-            }
+    /**
+     * The outcome of a bulk availability upload, counted in slots.
+     */
+    public static class UploadResult {
+        private final List<Slot> uploaded = new ArrayList<>();
+        private int duplicates = 0;
+
+        // Getters
+        public List<Slot> getUploaded() {
+            return uploaded;
+        }
+
+        public int getDuplicates() {
+            return duplicates;
         }
     }
 
@@ -111,35 +124,26 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            SchedulerStore store = Stores.get();
+            Credentials credentials = store.findCredentials(AccountType.CAREGIVER, this.username);
+            if (credentials == null) {
+                return null;
+            }
+            byte[] salt = credentials.getSalt();
+            byte[] hash = credentials.getHash();
+            // check if the password matches, whichever hash version it was stored with
+            if (!Util.verifyHash(password, salt, hash)) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            // re-hash the password with the current format so stored hashes get stronger over time
+            if (Util.needsRehash(hash)) {
+                salt = Util.generateSalt();
+                hash = Util.generateHash(password, salt);
+                store.updateCredentials(AccountType.CAREGIVER, new Credentials(this.username, salt, hash));
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Caregiver(this);
         }
     }
 }
\ No newline at end of file
@@ -1,10 +1,12 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.store.AccountType;
+import scheduler.store.Credentials;
+import scheduler.store.SchedulerStore;
+import scheduler.store.Stores;
 import scheduler.util.Util;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.SQLException;
 
 public class Patient {
     private final String username;
@@ -37,38 +39,7 @@ public class Patient {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException("Error fetching patient: " + e.getMessage(), e);
-        } finally {
-            cm.closeConnection();
-        }
-    }
-
-    public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException("Error fetching patient: " + e.getMessage(), e);
-        } finally {
-            cm.closeConnection();
-        }
+        Stores.get().insertAccount(AccountType.PATIENT, new Credentials(this.username, this.salt, this.hash));
     }
 
     public static class PatientBuilder {
@@ -99,35 +70,26 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            SchedulerStore store = Stores.get();
+            Credentials credentials = store.findCredentials(AccountType.PATIENT, this.username);
+            if (credentials == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException("Error fetching patient: " + e.getMessage(), e);
-            } finally {
-                cm.closeConnection();
             }
+            byte[] salt = credentials.getSalt();
+            byte[] hash = credentials.getHash();
+            // check if the password matches, whichever hash version it was stored with
+            if (!Util.verifyHash(password, salt, hash)) {
+                return null;
+            }
+            // re-hash the password with the current format so stored hashes get stronger over time
+            if (Util.needsRehash(hash)) {
+                salt = Util.generateSalt();
+                hash = Util.generateHash(password, salt);
+                store.updateCredentials(AccountType.PATIENT, new Credentials(this.username, salt, hash));
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Patient(this);
         }
     }
 }
\ No newline at end of file
@@ -1,10 +1,7 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.store.Stores;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class Vaccine {
@@ -31,65 +28,29 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Stores.get().insertVaccine(this.vaccineName, this.availableDoses);
     }
 
-    // Increment the available doses
+    // Increment the available doses; the delta is applied by the store so concurrent updates add up
     public void increaseAvailableDoses(int num) throws SQLException {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        if (!Stores.get().addDoses(this.vaccineName, num)) {
+            throw new SQLException("Vaccine " + this.vaccineName + " does not exist");
         }
+        this.availableDoses += num;
     }
 
-    // Decrement the available doses
+    // Decrement the available doses; fails without changing anything if the stock is too low
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        if (!Stores.get().takeDoses(this.vaccineName, num)) {
+            throw new IllegalArgumentException("Not enough available doses!");
         }
+        this.availableDoses = Math.max(0, this.availableDoses - num);
     }
 
     @Override
@@ -123,24 +84,12 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            int doses = Stores.get().availableDoses(this.vaccineName);
+            if (doses < 0) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = doses;
+            return new Vaccine(this);
         }
     }
 }
@@ -0,0 +1,133 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.metrics.MetricsExporter;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.ScheduleView;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the scheduler's line-based command protocol over TCP, one Session per connection.
+ *
+ * Each connection runs on its own virtual thread when the JVM supports them (Java 21+), so
+ * thousands of mostly idle clinic terminals only cost a few kilobytes each; older JVMs fall back to
+ * a cached pool of platform threads.
+ *
+ * usage: java scheduler.Scheduler --server [port]
+ */
+public class SchedulerServer {
+
+    private static final int DEFAULT_PORT = 5050;
+    // clients that send nothing for this long are disconnected
+    private static final int IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    private final int port;
+    private final ExecutorService executor = newSessionExecutor();
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private volatile ServerSocket serverSocket;
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        MetricsExporter.startFromEnvironment();
+        AvailabilityIndex.getInstance();
+        ScheduleView.getInstance();
+        SchedulerServer server = new SchedulerServer(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "scheduler-server-shutdown"));
+        try {
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Error occurred when running the server: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Accepts connections until stop() is called.
+     */
+    public void serve() throws IOException {
+        serverSocket = new ServerSocket(port);
+        System.out.println("Scheduler server listening on port " + serverSocket.getLocalPort());
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    break;
+                }
+                throw e;
+            }
+            executor.execute(() -> handle(socket));
+        }
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // already closed
+        }
+        executor.shutdownNow();
+    }
+
+    public int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    private void handle(Socket socket) {
+        openSessions.incrementAndGet();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(s.getOutputStream(), true, StandardCharsets.UTF_8.name())) {
+            s.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            Session session = new Session(out, true);
+            Scheduler.printGreeting(out);
+            while (true) {
+                out.print("> ");
+                out.flush();
+                String line = in.readLine();
+                if (line == null || !Scheduler.execute(session, line)) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // idle client, drop it
+        } catch (IOException e) {
+            System.out.println("Error occurred in client session: " + e.getMessage());
+        } finally {
+            openSessions.decrementAndGet();
+        }
+    }
+
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.metrics.MetricsExporter;
+import scheduler.service.AvailabilityIndex;
+import scheduler.service.ScheduleView;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a command script from standard input with several commands in flight at once, for drills
+ * and data loads that pipe thousands of commands into the scheduler.
+ *
+ * The script reads like a CLI transcript, but it is split into lanes as it is read:
+ *   - login_patient/login_caregiver starts a lane with its own Session; the user's commands up to
+ *     logout run in it, one after the other, exactly as they would in the CLI
+ *   - create_patient/create_caregiver run on their own, ordered with every other command of the
+ *     same username (so "create_patient a" always runs before a later "login_patient a")
+ *   - lanes of the same username run in script order; lanes of different users run concurrently
+ *     on a pool of worker threads
+ * import_users, create_patients, quit and the end of input wait for everything before them, and
+ * everything after them waits for them. Commands of different users are not ordered otherwise: a
+ * script in which patients reserve slots a caregiver uploads earlier in the same script puts a
+ * line containing only "wait" between the two parts, which is such a barrier as well.
+ *
+ * Output is captured per command and printed in input order, so the transcript looks the same as
+ * a sequential run whenever the script's users do not depend on each other.
+ *
+ * usage: java scheduler.Scheduler --pipeline [workers] < script.txt
+ */
+public class ScriptPipeline {
+
+    private static final int DEFAULT_WORKERS = 8;
+    // commands read ahead of the oldest one not yet printed, per worker
+    private static final int READ_AHEAD_PER_WORKER = 64;
+    private static final String BARRIER = "wait";
+    // finished commands are dropped from sinceBarrier once it grows past this
+    private static final int PRUNE_THRESHOLD = 4096;
+
+    private static final CompletableFuture<String> DONE = CompletableFuture.completedFuture("");
+
+    private final ExecutorService workers;
+    private final BlockingQueue<CompletableFuture<String>> results;
+    private final Map<String, CompletableFuture<String>> lastByUser = new HashMap<>();
+    // every command issued since the last barrier, so the next barrier can wait for all of them
+    private final List<CompletableFuture<String>> sinceBarrier = new ArrayList<>();
+    private CompletableFuture<String> barrier = DONE;
+    private Lane current = null;
+
+    public ScriptPipeline(int workerCount) {
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "scheduler-pipeline-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.results = new ArrayBlockingQueue<>(workerCount * READ_AHEAD_PER_WORKER);
+    }
+
+    public static void main(String[] args) {
+        int workerCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_WORKERS;
+        MetricsExporter.startFromEnvironment();
+        AvailabilityIndex.getInstance();
+        ScheduleView.getInstance();
+        Scheduler.printGreeting(System.out);
+        try {
+            new ScriptPipeline(workerCount).run(
+                    new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), System.out);
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Error occurred when running the script: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs every command in the script and prints their output to out in input order.
+     */
+    public void run(BufferedReader script, PrintStream out) throws IOException, InterruptedException {
+        Thread printer = new Thread(() -> print(out), "scheduler-pipeline-printer");
+        printer.start();
+        try {
+            String line;
+            while ((line = script.readLine()) != null) {
+                if (line.trim().equals(BARRIER)) {
+                    barrier();
+                    continue;
+                }
+                if (!submit(line)) {
+                    break;
+                }
+            }
+            if (line == null) {
+                // end of input behaves like quit
+                submit("quit");
+            }
+        } finally {
+            results.put(DONE);
+            printer.join();
+            workers.shutdown();
+        }
+    }
+
+    // routes a line to its lane; returns false once the script asked to quit
+    private boolean submit(String line) throws InterruptedException {
+        String[] tokens = Scheduler.tokenize(line);
+        String operation = tokens.length > 0 ? tokens[0] : "";
+        switch (operation) {
+            case "login_patient":
+            case "login_caregiver":
+                if (current == null) {
+                    String username = tokens.length > 1 ? tokens[1] : "";
+                    current = new Lane(username);
+                    issue(current, line, lastByUser.getOrDefault(username, DONE));
+                    return true;
+                }
+                // already logged in: the session rejects it, as in the CLI
+                break;
+            case "logout":
+                issue(current != null ? current : new Lane(null), line, DONE);
+                current = null;
+                return true;
+            case "create_patient":
+            case "create_caregiver":
+                if (current == null) {
+                    String user = tokens.length > 1 ? tokens[1] : "";
+                    issue(new Lane(user), line, lastByUser.getOrDefault(user, DONE));
+                    return true;
+                }
+                break;
+            case "import_users":
+            case "create_patients":
+            case "quit":
+                // touch any number of users, so run alone
+                barrier();
+                issue(current != null ? current : new Lane(null), line, DONE);
+                barrier();
+                return !operation.equals("quit");
+            default:
+                break;
+        }
+        issue(current != null ? current : new Lane(null), line, DONE);
+        return true;
+    }
+
+    // queues a command behind the previous command of its lane, the barrier and the given predecessor
+    private void issue(Lane lane, String line, CompletableFuture<String> after) throws InterruptedException {
+        CompletableFuture<String> ready = lane.tail.thenCombine(barrier, (a, b) -> a)
+                .thenCombine(after, (a, b) -> a);
+        CompletableFuture<String> result = ready.handleAsync((ignored, error) -> lane.execute(line), workers);
+        lane.tail = result;
+        if (lane.username != null) {
+            lastByUser.put(lane.username, result);
+        }
+        if (sinceBarrier.size() >= PRUNE_THRESHOLD) {
+            sinceBarrier.removeIf(CompletableFuture::isDone);
+        }
+        sinceBarrier.add(result);
+        results.put(result);
+    }
+
+    private void barrier() {
+        sinceBarrier.add(barrier);
+        barrier = CompletableFuture.allOf(sinceBarrier.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> "");
+        sinceBarrier.clear();
+    }
+
+    private void print(PrintStream out) {
+        try {
+            while (true) {
+                CompletableFuture<String> result = results.take();
+                if (result == DONE) {
+                    return;
+                }
+                out.print("> ");
+                out.print(result.join());
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A sequence of commands that share a Session and run in order.
+     */
+    private static class Lane {
+        private final String username;
+        private final SwitchableOutput output = new SwitchableOutput();
+        private final Session session = new Session(new PrintStream(output, false, StandardCharsets.UTF_8));
+        private CompletableFuture<String> tail = DONE;
+
+        private Lane(String username) {
+            this.username = username;
+        }
+
+        // only ever called by one worker at a time: each command waits for the lane's previous one
+        private String execute(String line) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            output.target = buffer;
+            try {
+                Scheduler.execute(session, line);
+            } catch (RuntimeException e) {
+                session.println("Please try again!");
+                e.printStackTrace();
+            }
+            session.getOut().flush();
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // lets a lane's session keep one PrintStream while each command's output goes to its own buffer
+    private static class SwitchableOutput extends OutputStream {
+        private volatile OutputStream target;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+        }
+    }
+}
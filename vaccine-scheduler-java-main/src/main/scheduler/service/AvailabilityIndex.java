@@ -0,0 +1,313 @@
+package scheduler.service;
+
+import scheduler.store.Slot;
+import scheduler.store.Stores;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * A write-through, in-memory index of which caregivers are free when.
+ *
+ * Each caregiver's free slots on a date are kept as a bitmap (see Slot), in a sorted map per
+ * date, and the caregivers free in each slot of a date in a sorted set per slot, so "earliest free
+ * slot on date X" is the first caregiver of the date's first non-empty slot, without scanning the
+ * day's caregivers or touching the database. Bitmaps are replaced atomically by the skip list's
+ * merge and compute, so concurrent commands for the same caregiver and date do not lose each
+ * other's changes; the slot sets are updated after the bitmap and may briefly hold a caregiver who
+ * was just booked, which lookups check against the bitmap and drop. The store stays the source of
+ * truth: the index is loaded from it on first use, every command that changes availability writes
+ * through to it after the database change succeeded, and verify() / reload() detect and repair
+ * drift (e.g. rows written by another process).
+ */
+public class AvailabilityIndex {
+
+    private static final AvailabilityIndex INSTANCE = new AvailabilityIndex();
+    private static final int MAX_DATES_RELOADED_SINGLY = 7;
+
+    private volatile Map<LocalDate, Day> freeByDate = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+    // System.nanoTime() of the last full reload, and of the dates re-read on their own since
+    private volatile long loadedAt;
+    private final Map<LocalDate, Long> dateLoadedAt = new ConcurrentHashMap<>();
+
+    private AvailabilityIndex() {
+        Stores.addChangeListener(() -> {
+            try {
+                reload();
+            } catch (SQLException e) {
+                System.out.println("Error occurred when reloading the availability index: " + e.getMessage());
+            }
+        });
+    }
+
+    public static AvailabilityIndex getInstance() {
+        if (!INSTANCE.loaded) {
+            synchronized (INSTANCE) {
+                if (!INSTANCE.loaded) {
+                    try {
+                        INSTANCE.reload();
+                    } catch (SQLException e) {
+                        // callers fall back to the database until a reload succeeds
+                        System.out.println("Error occurred when loading the availability index: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Whether the index has been loaded and can be trusted for lookups.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns the earliest free slot on the date, ties going to the alphabetically first
+     * caregiver, or null if nobody is free.
+     */
+    public Slot firstFree(Date date) {
+        Day day = freeByDate.get(date.toLocalDate());
+        if (day == null) {
+            return null;
+        }
+        for (int slot = 0; slot < Slot.PER_DAY; slot++) {
+            String caregiver = day.first(slot);
+            if (caregiver != null) {
+                return new Slot(date, slot, caregiver);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the alphabetically first caregiver free in the slot on the date, or null if there
+     * is none.
+     */
+    public String firstFree(Date date, int slot) {
+        Day day = freeByDate.get(date.toLocalDate());
+        return day == null ? null : day.first(slot);
+    }
+
+    /**
+     * Returns the free slots of each caregiver on the date, by username.
+     */
+    public NavigableMap<String, Long> freeOn(Date date) {
+        Day day = freeByDate.get(date.toLocalDate());
+        return day == null ? Collections.emptyNavigableMap() : Collections.unmodifiableNavigableMap(day.free);
+    }
+
+    /**
+     * Returns the free slots of each caregiver on every date from start to end inclusive, in date
+     * order. Dates on which nobody is free map to an empty map.
+     */
+    public SortedMap<LocalDate, NavigableMap<String, Long>> freeBetween(LocalDate start, LocalDate end) {
+        SortedMap<LocalDate, NavigableMap<String, Long>> free = new TreeMap<>();
+        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+            Day day = freeByDate.get(d);
+            free.put(d, day == null ? Collections.emptyNavigableMap()
+                    : Collections.unmodifiableNavigableMap(day.free));
+        }
+        return free;
+    }
+
+    public void markFree(Slot slot) {
+        markFree(slot.getTime(), slot.getSlot(), slot.getCaregiverUsername());
+    }
+
+    public void markFree(Date date, int slot, String caregiverUsername) {
+        freeByDate.computeIfAbsent(date.toLocalDate(), d -> new Day()).add(caregiverUsername, 1L << slot);
+    }
+
+    public void markBooked(Date date, int slot, String caregiverUsername) {
+        Day day = freeByDate.get(date.toLocalDate());
+        if (day != null) {
+            day.remove(caregiverUsername, 1L << slot);
+        }
+    }
+
+    /**
+     * Drops all of the caregiver's free slots on the date.
+     */
+    public void withdraw(Date date, String caregiverUsername) {
+        Day day = freeByDate.get(date.toLocalDate());
+        if (day != null) {
+            day.remove(caregiverUsername, Slot.WHOLE_DAY);
+        }
+    }
+
+    /**
+     * Replaces the whole index with the current state of the database.
+     */
+    public void reload() throws SQLException {
+        Map<LocalDate, Day> fresh = new ConcurrentHashMap<>();
+        for (Slot slot : Stores.get().freeSlots(null)) {
+            fresh.computeIfAbsent(slot.getTime().toLocalDate(), d -> new Day())
+                    .add(slot.getCaregiverUsername(), 1L << slot.getSlot());
+        }
+        freeByDate = fresh;
+        loadedAt = System.nanoTime();
+        dateLoadedAt.clear();
+        loaded = true;
+    }
+
+    /**
+     * Re-reads a single date from the database, e.g. after a lookup turned out to be stale.
+     */
+    public void reload(Date date) throws SQLException {
+        Day fresh = new Day();
+        for (Slot slot : Stores.get().freeSlots(date)) {
+            fresh.add(slot.getCaregiverUsername(), 1L << slot.getSlot());
+        }
+        freeByDate.put(date.toLocalDate(), fresh);
+        dateLoadedAt.put(date.toLocalDate(), System.nanoTime());
+    }
+
+    /**
+     * Re-reads every date from start to end inclusive that was last read from the database more
+     * than maxAgeNanos ago, so changes made by other processes show up. Past a handful of dates a
+     * single full reload is cheaper than a query per date.
+     */
+    public void reloadOlderThan(LocalDate start, LocalDate end, long maxAgeNanos) throws SQLException {
+        long now = System.nanoTime();
+        List<LocalDate> stale = new ArrayList<>();
+        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+            long readAt = Math.max(loadedAt, dateLoadedAt.getOrDefault(d, loadedAt));
+            if (now - readAt > maxAgeNanos) {
+                stale.add(d);
+            }
+        }
+        if (stale.size() > MAX_DATES_RELOADED_SINGLY) {
+            reload();
+            return;
+        }
+        for (LocalDate d : stale) {
+            reload(Date.valueOf(d));
+        }
+    }
+
+    /**
+     * Compares the index with the database and returns a description of every difference; an
+     * empty list means the index is consistent.
+     */
+    public List<String> verify() throws SQLException {
+        Map<LocalDate, Map<String, Long>> actual = new HashMap<>();
+        for (Slot slot : Stores.get().freeSlots(null)) {
+            actual.computeIfAbsent(slot.getTime().toLocalDate(), d -> new TreeMap<>())
+                    .merge(slot.getCaregiverUsername(), 1L << slot.getSlot(), (a, b) -> a | b);
+        }
+        Set<LocalDate> dates = new TreeSet<>(actual.keySet());
+        dates.addAll(freeByDate.keySet());
+        List<String> differences = new ArrayList<>();
+        for (LocalDate date : dates) {
+            Map<String, Long> expected = actual.getOrDefault(date, Collections.emptyMap());
+            Day day = freeByDate.get(date);
+            Map<String, Long> indexed = day == null ? Collections.emptyMap() : day.free;
+            Set<String> caregivers = new TreeSet<>(expected.keySet());
+            caregivers.addAll(indexed.keySet());
+            for (String caregiver : caregivers) {
+                long missing = expected.getOrDefault(caregiver, 0L) & ~indexed.getOrDefault(caregiver, 0L);
+                long stale = indexed.getOrDefault(caregiver, 0L) & ~expected.getOrDefault(caregiver, 0L);
+                if (missing != 0) {
+                    differences.add(date + ": " + caregiver + " is free at " + Slot.describe(missing)
+                            + " but missing from the index");
+                }
+                if (stale != 0) {
+                    differences.add(date + ": " + caregiver + " is indexed as free at " + Slot.describe(stale)
+                            + " but is not");
+                }
+                long unlisted = day == null ? 0 : day.unlisted(caregiver);
+                if (unlisted != 0) {
+                    differences.add(date + ": " + caregiver + " is indexed as free at " + Slot.describe(unlisted)
+                            + " but missing from those slots' caregivers");
+                }
+            }
+        }
+        return differences;
+    }
+
+    // the free caregivers of one date
+    private static class Day {
+        // caregiver -> free slots
+        private final ConcurrentSkipListMap<String, Long> free = new ConcurrentSkipListMap<>();
+        // slot -> caregivers free in it; may hold caregivers no longer free there, see first()
+        private final List<ConcurrentSkipListSet<String>> bySlot = new ArrayList<>(Slot.PER_DAY);
+
+        private Day() {
+            for (int slot = 0; slot < Slot.PER_DAY; slot++) {
+                bySlot.add(new ConcurrentSkipListSet<>());
+            }
+        }
+
+        private void add(String caregiver, long slots) {
+            free.merge(caregiver, slots, (a, b) -> a | b);
+            for (long rest = slots; rest != 0; rest &= rest - 1) {
+                bySlot.get(Long.numberOfTrailingZeros(rest)).add(caregiver);
+            }
+        }
+
+        private void remove(String caregiver, long slots) {
+            // a caregiver with no free slots left is dropped from the date
+            free.computeIfPresent(caregiver, (c, current) -> {
+                long rest = current & ~slots;
+                return rest == 0 ? null : rest;
+            });
+            for (long rest = slots; rest != 0; rest &= rest - 1) {
+                unlist(caregiver, Long.numberOfTrailingZeros(rest));
+            }
+        }
+
+        // the alphabetically first caregiver free in the slot, dropping the ones that were booked
+        private String first(int slot) {
+            // the set's iterator tolerates the removals below
+            for (String caregiver : bySlot.get(slot)) {
+                if (isFree(caregiver, slot)) {
+                    return caregiver;
+                }
+                unlist(caregiver, slot);
+            }
+            return null;
+        }
+
+        private void unlist(String caregiver, int slot) {
+            bySlot.get(slot).remove(caregiver);
+            // a concurrent add() may have freed the slot again before our removal
+            if (isFree(caregiver, slot)) {
+                bySlot.get(slot).add(caregiver);
+            }
+        }
+
+        private boolean isFree(String caregiver, int slot) {
+            Long slots = free.get(caregiver);
+            return slots != null && (slots & 1L << slot) != 0;
+        }
+
+        // free slots of the caregiver that their slots' sets do not list
+        private long unlisted(String caregiver) {
+            long unlisted = 0;
+            for (long rest = free.getOrDefault(caregiver, 0L); rest != 0; rest &= rest - 1) {
+                int slot = Long.numberOfTrailingZeros(rest);
+                if (!bySlot.get(slot).contains(caregiver)) {
+                    unlisted |= 1L << slot;
+                }
+            }
+            return unlisted;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package scheduler.service;
+
+import scheduler.metrics.Metrics;
+import scheduler.store.Reservation;
+import scheduler.store.Stores;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects reservations for the same date and vaccine that arrive within a short window and books
+ * them together with one SchedulerStore.reserveBatch call, for mass-vaccination days when hundreds
+ * of patients want the same date.
+ *
+ * Booked one at a time, every reservation on a date goes for the alphabetically first free
+ * caregiver, so concurrent requests all contend for the same slot row. A batch takes its doses and
+ * slots in a single transaction and hands caregivers out least loaded first, which also spreads
+ * consecutive event days evenly over the caregivers. Callers wait until their batch is booked: when
+ * its window ends, or as soon as it holds maxBatch requests.
+ *
+ * Enabled with the ReserveBatchWindowMs environment variable (0, the default, books one at a
+ * time); ReserveBatchSize caps the requests per batch (default 256).
+ */
+public class BatchAllocator {
+
+    // batches for different dates or vaccines are booked in parallel on this many threads
+    private static final int BOOKING_THREADS = 4;
+
+    private static final LongAdder BATCHES = Metrics.counter("scheduler_reserve_batches_total");
+    private static final LongAdder BATCHED = Metrics.counter("scheduler_reserve_batched_total");
+
+    private static final BatchAllocator CONFIGURED = configured();
+
+    private final long windowMillis;
+    private final int maxBatch;
+    private final ScheduledExecutorService booker;
+    // batches still collecting requests, by date and vaccine; guarded by itself
+    private final Map<List<Object>, Batch> open = new HashMap<>();
+
+    public BatchAllocator(long windowMillis, int maxBatch) {
+        if (windowMillis <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("Window and batch size must be positive!");
+        }
+        this.windowMillis = windowMillis;
+        this.maxBatch = maxBatch;
+        this.booker = Executors.newScheduledThreadPool(BOOKING_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "reserve-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the allocator configured with ReserveBatchWindowMs, or null if batching is off.
+     */
+    public static BatchAllocator getConfigured() {
+        return CONFIGURED;
+    }
+
+    /**
+     * Adds the request to the open batch for its date and vaccine and waits until the batch has
+     * been booked.
+     */
+    public Reservation reserve(String patientUsername, Date date, String vaccineName) throws SQLException {
+        List<Object> key = Arrays.asList(date, vaccineName);
+        CompletableFuture<Reservation> result = new CompletableFuture<>();
+        Batch full = null;
+        synchronized (open) {
+            Batch batch = open.get(key);
+            if (batch == null) {
+                Batch created = new Batch(date, vaccineName);
+                open.put(key, created);
+                booker.schedule(() -> bookWhenDue(key, created), windowMillis, TimeUnit.MILLISECONDS);
+                batch = created;
+            }
+            batch.patients.add(patientUsername);
+            batch.results.add(result);
+            if (batch.patients.size() >= maxBatch) {
+                open.remove(key);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            // the request that fills a batch books it, instead of waiting for the window
+            book(full);
+        }
+        try {
+            // a batch always completes its results, so this wait cannot hang
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void bookWhenDue(List<Object> key, Batch batch) {
+        synchronized (open) {
+            // a batch that filled up has been booked already
+            if (open.get(key) != batch) {
+                return;
+            }
+            open.remove(key);
+        }
+        book(batch);
+    }
+
+    private static void book(Batch batch) {
+        List<Reservation> reservations;
+        try {
+            reservations = Stores.get().reserveBatch(batch.date, batch.vaccineName, batch.patients);
+        } catch (SQLException | RuntimeException e) {
+            for (CompletableFuture<Reservation> result : batch.results) {
+                result.completeExceptionally(e);
+            }
+            return;
+        }
+        BATCHES.increment();
+        BATCHED.add(batch.patients.size());
+        for (int i = 0; i < reservations.size(); i++) {
+            batch.results.get(i).complete(reservations.get(i));
+        }
+    }
+
+    private static BatchAllocator configured() {
+        String window = System.getenv("ReserveBatchWindowMs");
+        if (window == null || Long.parseLong(window.trim()) == 0) {
+            return null;
+        }
+        String size = System.getenv("ReserveBatchSize");
+        return new BatchAllocator(Long.parseLong(window.trim()), size == null ? 256 : Integer.parseInt(size.trim()));
+    }
+
+    private static class Batch {
+        private final Date date;
+        private final String vaccineName;
+        private final List<String> patients = new ArrayList<>();
+        private final List<CompletableFuture<Reservation>> results = new ArrayList<>();
+
+        private Batch(Date date, String vaccineName) {
+            this.date = date;
+            this.vaccineName = vaccineName;
+        }
+    }
+}
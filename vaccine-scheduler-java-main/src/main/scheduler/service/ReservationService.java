@@ -0,0 +1,122 @@
+package scheduler.service;
+
+import scheduler.model.Appointment;
+import scheduler.store.Reservation;
+import scheduler.store.Slot;
+import scheduler.store.Stores;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Books appointments, using the AvailabilityIndex to pick the caregiver to claim.
+ *
+ * The index is consulted first and the indexed caregiver's slot is claimed directly, falling back
+ * to any free slot. If the index knows of nobody free the store is still asked, since another
+ * process may have uploaded availability since the index was loaded; a booking made that way
+ * means the index is out of date for the day, so the day is reloaded (a failed reload is logged,
+ * not reported as a failed reservation). Taking the dose and claiming the slot happen atomically
+ * inside the store (see SchedulerStore.reserve), so a dose is never consumed without an
+ * appointment and vice versa. Cancelling works the same way in reverse.
+ *
+ * With a BatchAllocator, reservations for the same date and vaccine that do not ask for a slot are
+ * booked together in one transaction and caregivers handed out least loaded first (see
+ * SchedulerStore.reserveBatch).
+ */
+public class ReservationService {
+
+    private final BatchAllocator allocator;
+
+    public ReservationService() {
+        this(BatchAllocator.getConfigured());
+    }
+
+    /**
+     * Books reservations through the allocator, or one at a time if it is null.
+     */
+    public ReservationService(BatchAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * Reserves a dose of vaccineName and the earliest free caregiver slot on the given date for
+     * the patient, or a slot of the least loaded caregiver when batching.
+     */
+    public Reservation reserve(String patientUsername, Date date, String vaccineName) throws SQLException {
+        return reserve(patientUsername, date, -1, vaccineName);
+    }
+
+    /**
+     * Reserves a dose of vaccineName and a free caregiver slot on the given date for the patient:
+     * the given slot with the first caregiver free in it, or as reserve(patient, date, vaccine)
+     * does if slot is negative.
+     */
+    public Reservation reserve(String patientUsername, Date date, int slot, String vaccineName)
+            throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        String preferred = null;
+        if (index.isLoaded()) {
+            if (slot < 0) {
+                Slot first = index.firstFree(date);
+                preferred = first == null ? null : first.getCaregiverUsername();
+            } else {
+                preferred = index.firstFree(date, slot);
+            }
+        }
+        Reservation reservation = allocator != null && slot < 0
+                ? allocator.reserve(patientUsername, date, vaccineName)
+                : Stores.get().reserve(patientUsername, date, slot, vaccineName, preferred);
+        if (reservation.isReserved()) {
+            ScheduleView.getInstance().adjustStock(vaccineName, -1);
+            if (preferred == null && index.isLoaded()) {
+                // the index thought nobody was free, so it is out of date for this day
+                reload(index, date);
+            } else {
+                index.markBooked(date, reservation.getSlot(), reservation.getCaregiverUsername());
+            }
+        } else if (reservation.getStatus() == Reservation.Status.NO_CAREGIVER && preferred != null) {
+            // the index thought someone was free, so it is out of date for this day
+            reload(index, date);
+        }
+        return reservation;
+    }
+
+    // the outcome of the reservation stands either way; a day that could not be re-read stays out
+    // of date until the next reload, and bookings on it keep falling back to the store
+    private static void reload(AvailabilityIndex index, Date date) {
+        try {
+            index.reload(date);
+        } catch (SQLException e) {
+            System.out.println("Error occurred when reloading the availability index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cancels an appointment of the given patient or caregiver, giving its slot back to the
+     * caregiver and its dose back to the stock. Returns the cancelled appointment, or null if
+     * there is no such appointment for this user.
+     */
+    public Appointment cancel(int appointmentId, String username) throws SQLException {
+        Appointment appointment = Stores.get().cancelAppointment(appointmentId, username);
+        if (appointment != null) {
+            AvailabilityIndex.getInstance().markFree(appointment.getTime(), appointment.getSlot(),
+                    appointment.getCaregiverUsername());
+            ScheduleView.getInstance().adjustStock(appointment.getVaccineName(), 1);
+        }
+        return appointment;
+    }
+
+    /**
+     * Cancels all of a caregiver's appointments on the given date and withdraws their free slots
+     * on it, returning the doses to the stock. Returns the cancelled appointments by id.
+     */
+    public List<Appointment> cancelDay(String caregiverUsername, Date date) throws SQLException {
+        List<Appointment> cancelled = Stores.get().cancelCaregiverDay(caregiverUsername, date);
+        AvailabilityIndex.getInstance().withdraw(date, caregiverUsername);
+        for (Appointment appointment : cancelled) {
+            ScheduleView.getInstance().adjustStock(appointment.getVaccineName(), 1);
+        }
+        return cancelled;
+    }
+}
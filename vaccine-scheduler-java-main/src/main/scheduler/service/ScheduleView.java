@@ -0,0 +1,120 @@
+package scheduler.service;
+
+import scheduler.store.Stores;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The data behind search_caregiver_schedule, maintained incrementally instead of being recomputed
+ * by joining every caregiver with every vaccine on each search.
+ *
+ * Free caregiver slots per date come from the AvailabilityIndex; this class adds the current dose
+ * stock per vaccine. Like the index it is loaded from the store on first use and written through
+ * by the commands that change it (add_doses, reserve, cancel), so a search mostly reads memory and
+ * its result grows with the number of free caregivers and vaccines, not their product. Other
+ * processes change the store too, so a search first re-reads the stock and the searched dates
+ * once they are older than ScheduleViewTtlMs (5 seconds by default).
+ */
+public class ScheduleView {
+
+    private static final ScheduleView INSTANCE = new ScheduleView();
+
+    private volatile ConcurrentSkipListMap<String, Integer> stock = new ConcurrentSkipListMap<>();
+    private volatile boolean loaded = false;
+    private volatile long stockLoadedAt;
+    // set when a change could not be applied to the cached stock, so the next search re-reads it
+    private volatile boolean stockStale = false;
+    private final long ttlNanos = configuredTtlMillis() * 1_000_000L;
+
+    private ScheduleView() {
+        Stores.addChangeListener(() -> {
+            try {
+                reload();
+            } catch (SQLException e) {
+                System.out.println("Error occurred when reloading the vaccine stock: " + e.getMessage());
+            }
+        });
+    }
+
+    public static ScheduleView getInstance() {
+        if (!INSTANCE.loaded) {
+            synchronized (INSTANCE) {
+                if (!INSTANCE.loaded) {
+                    try {
+                        INSTANCE.reload();
+                    } catch (SQLException e) {
+                        System.out.println("Error occurred when loading the vaccine stock: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Whether both the stock and the availability index are loaded and can be served.
+     */
+    public boolean isLoaded() {
+        return loaded && AvailabilityIndex.getInstance().isLoaded();
+    }
+
+    /**
+     * Re-reads the dose stock from the store.
+     */
+    public void reload() throws SQLException {
+        stockStale = false;
+        stock = new ConcurrentSkipListMap<>(Stores.get().vaccineStock());
+        stockLoadedAt = System.nanoTime();
+        loaded = true;
+    }
+
+    /**
+     * Re-reads the stock and the free slots on the dates from start to end inclusive if they were
+     * read from the store longer ago than the time to live, and the stock also if a change could
+     * not be applied to it.
+     */
+    public void refresh(Date start, Date end) throws SQLException {
+        if (stockStale || System.nanoTime() - stockLoadedAt > ttlNanos) {
+            reload();
+        }
+        AvailabilityIndex.getInstance().reloadOlderThan(start.toLocalDate(), end.toLocalDate(), ttlNanos);
+    }
+
+    /**
+     * Returns the free slots (bitmaps, see Slot) of each caregiver on every date from start to end
+     * inclusive.
+     */
+    public SortedMap<LocalDate, NavigableMap<String, Long>> freeCaregivers(Date start, Date end) {
+        return AvailabilityIndex.getInstance().freeBetween(start.toLocalDate(), end.toLocalDate());
+    }
+
+    /**
+     * Returns the available doses of every vaccine, ordered by name.
+     */
+    public SortedMap<String, Integer> getStock() {
+        return Collections.unmodifiableSortedMap(stock);
+    }
+
+    public void setStock(String vaccineName, int doses) {
+        stock.put(vaccineName, doses);
+    }
+
+    // applies a change that already succeeded in the store, e.g. -1 for a reservation. A vaccine
+    // missing from the cached stock was added since it was read, so it is re-read instead
+    public void adjustStock(String vaccineName, int delta) {
+        if (stock.computeIfPresent(vaccineName, (name, doses) -> doses + delta) == null) {
+            stockStale = true;
+        }
+    }
+
+    private static long configuredTtlMillis() {
+        String value = System.getenv("ScheduleViewTtlMs");
+        return value == null ? 5_000 : Long.parseLong(value.trim());
+    }
+}
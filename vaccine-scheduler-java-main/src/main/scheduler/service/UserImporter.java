@@ -0,0 +1,254 @@
+package scheduler.service;
+
+import scheduler.store.AccountType;
+import scheduler.store.Credentials;
+import scheduler.store.SchedulerStore;
+import scheduler.store.Stores;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Bulk-loads patients and caregivers from a CSV file of type,username,password lines.
+ *
+ * The file is streamed in chunks. For each chunk the rows are validated, usernames that already
+ * exist are found with one lookup per account type, passwords are hashed in parallel on a
+ * fork-join pool, and the new accounts are written with one batch insert per account type. Rejected
+ * lines are written to a reject file next to the input as line number, reason, type and username;
+ * the password is left out so it is not copied to disk.
+ */
+public class UserImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1_000;
+
+    private final int chunkSize;
+    private final ForkJoinPool hashPool;
+
+    public UserImporter() {
+        this(DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public UserImporter(int chunkSize, ForkJoinPool hashPool) {
+        if (chunkSize <= 0 || chunkSize > 2_000) {
+            // SQL Server accepts at most 2100 parameters per statement
+            throw new IllegalArgumentException("Chunk size must be between 1 and 2000!");
+        }
+        this.chunkSize = chunkSize;
+        this.hashPool = hashPool;
+    }
+
+    /**
+     * Imports the file and reports progress after every chunk. The reject file is only created if
+     * at least one line is rejected.
+     */
+    public Result importFile(Path input, Consumer<String> progress) throws IOException, SQLException {
+        Path rejectPath = input.resolveSibling(input.getFileName() + ".rejects.csv");
+        Files.deleteIfExists(rejectPath);
+        Result result = new Result(rejectPath);
+        long start = System.nanoTime();
+        Set<String> seenPatients = new HashSet<>();
+        Set<String> seenCaregivers = new HashSet<>();
+        BufferedWriter rejects = null;
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            List<Row> chunk = new ArrayList<>(chunkSize);
+            List<Row> rejected = new ArrayList<>();
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || (lineNumber == 1 && line.toLowerCase(Locale.ROOT).startsWith("type,"))) {
+                    continue;
+                }
+                Row row = Row.parse(lineNumber, line);
+                if (row.reason == null) {
+                    Set<String> seen = row.type == AccountType.PATIENT ? seenPatients : seenCaregivers;
+                    if (!seen.add(row.username)) {
+                        row.reason = "duplicate username in file";
+                    }
+                }
+                (row.reason == null ? chunk : rejected).add(row);
+                if (chunk.size() == chunkSize || rejected.size() == chunkSize) {
+                    rejects = flush(chunk, rejected, result, rejects, rejectPath);
+                    progress.accept(result.describe(start));
+                }
+            }
+            rejects = flush(chunk, rejected, result, rejects, rejectPath);
+            progress.accept(result.describe(start));
+        } finally {
+            if (rejects != null) {
+                rejects.close();
+            }
+        }
+        return result;
+    }
+
+    private BufferedWriter flush(List<Row> chunk, List<Row> rejected, Result result, BufferedWriter rejects,
+                                 Path rejectPath) throws IOException, SQLException {
+        if (!chunk.isEmpty()) {
+            importChunk(chunk);
+            for (Row row : chunk) {
+                if (row.reason == null) {
+                    result.imported++;
+                } else {
+                    rejected.add(row);
+                }
+            }
+        }
+        if (!rejected.isEmpty() && rejects == null) {
+            rejects = Files.newBufferedWriter(rejectPath, StandardCharsets.UTF_8);
+        }
+        for (Row row : rejected) {
+            rejects.write(row.lineNumber + "," + row.reason.replace(',', ';') + "," + row.withoutPassword());
+            rejects.newLine();
+            result.rejected++;
+        }
+        chunk.clear();
+        rejected.clear();
+        return rejects;
+    }
+
+    private void importChunk(List<Row> chunk) throws SQLException {
+        SchedulerStore store = Stores.get();
+        markExisting(store, AccountType.PATIENT, chunk);
+        markExisting(store, AccountType.CAREGIVER, chunk);
+        hashAll(chunk);
+        insert(store, AccountType.PATIENT, chunk);
+        insert(store, AccountType.CAREGIVER, chunk);
+    }
+
+    private static void markExisting(SchedulerStore store, AccountType type, List<Row> chunk) throws SQLException {
+        List<String> candidates = new ArrayList<>();
+        for (Row row : chunk) {
+            if (row.reason == null && row.type == type) {
+                candidates.add(row.username);
+            }
+        }
+        Set<String> existing = store.findExistingAccounts(type, candidates);
+        for (Row row : chunk) {
+            if (row.reason == null && row.type == type && existing.contains(row.username)) {
+                row.reason = "username already taken";
+            }
+        }
+    }
+
+    private void hashAll(List<Row> chunk) {
+        try {
+            hashPool.submit(() -> chunk.parallelStream()
+                    .filter(row -> row.reason == null)
+                    .forEach(row -> {
+                        row.salt = Util.generateSalt();
+                        row.hash = Util.generateHash(row.password, row.salt);
+                    })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // someone may have registered one of these usernames since we checked; the store skips those
+    private static void insert(SchedulerStore store, AccountType type, List<Row> chunk) throws SQLException {
+        List<Credentials> accounts = new ArrayList<>();
+        for (Row row : chunk) {
+            if (row.reason == null && row.type == type) {
+                accounts.add(new Credentials(row.username, row.salt, row.hash));
+            }
+        }
+        Set<String> taken = store.insertAccounts(type, accounts);
+        for (Row row : chunk) {
+            if (row.reason == null && row.type == type && taken.contains(row.username)) {
+                row.reason = "username already taken";
+            }
+        }
+    }
+
+    private static class Row {
+        private final int lineNumber;
+        private final String line;
+        private AccountType type;
+        private String username;
+        private String password;
+        private byte[] salt;
+        private byte[] hash;
+        private String reason;
+
+        private Row(int lineNumber, String line) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+
+        // the type and username fields of the line; a line that could not be split has neither
+        String withoutPassword() {
+            String[] fields = line.split(",", -1);
+            return fields.length == 3 ? fields[0] + "," + fields[1] : ",";
+        }
+
+        static Row parse(int lineNumber, String line) {
+            Row row = new Row(lineNumber, line);
+            String[] fields = line.split(",", -1);
+            if (fields.length != 3) {
+                row.reason = "expected type,username,password";
+                return row;
+            }
+            String type = fields[0].trim().toLowerCase(Locale.ROOT);
+            row.username = fields[1].trim();
+            row.password = fields[2].trim();
+            if (!type.equals("patient") && !type.equals("caregiver")) {
+                row.reason = "type must be patient or caregiver";
+            } else if (row.username.isEmpty() || row.username.length() > 255) {
+                row.reason = "invalid username";
+            } else if (!Util.isStrongPassword(row.password)) {
+                row.reason = "password does not meet the strength requirements";
+            }
+            row.type = type.equals("patient") ? AccountType.PATIENT : AccountType.CAREGIVER;
+            return row;
+        }
+    }
+
+    /**
+     * Running totals of an import.
+     */
+    public static class Result {
+        private final Path rejectFile;
+        private long imported = 0;
+        private long rejected = 0;
+
+        private Result(Path rejectFile) {
+            this.rejectFile = rejectFile;
+        }
+
+        // Getters
+        public long getImported() {
+            return imported;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public Path getRejectFile() {
+            return rejectFile;
+        }
+
+        private String describe(long startNanos) {
+            double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+            return String.format("Imported %d, rejected %d (%.1f rows/s)", imported, rejected,
+                    (imported + rejected) / seconds);
+        }
+    }
+}
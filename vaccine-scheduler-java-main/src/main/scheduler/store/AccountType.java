@@ -0,0 +1,19 @@
+package scheduler.store;
+
+/**
+ * The two kinds of user accounts, each stored in its own table.
+ */
+public enum AccountType {
+    PATIENT("Patients"),
+    CAREGIVER("Caregivers");
+
+    private final String table;
+
+    AccountType(String table) {
+        this.table = table;
+    }
+
+    public String getTable() {
+        return table;
+    }
+}
@@ -0,0 +1,187 @@
+package scheduler.store;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Wraps a store and answers credential lookups from a CredentialCache, so logins from kiosks that
+ * re-authenticate all day do not each cost a database round trip. Every write that creates an
+ * account or changes its credentials invalidates the account's entry; all other operations are
+ * passed straight through.
+ *
+ * The cache only sees writes made through this process. Changes made elsewhere (another server on
+ * the same database, a script) become visible once the entry's time to live runs out, except that
+ * unknown usernames are forgotten whenever the store reports a change (see Stores.addChangeListener),
+ * so accounts an offline store picks up from the central database can log in right away.
+ */
+public class CachingStore implements SchedulerStore {
+
+    private final SchedulerStore delegate;
+    private final CredentialCache credentials;
+
+    public CachingStore(SchedulerStore delegate, CredentialCache credentials) {
+        this.delegate = delegate;
+        this.credentials = credentials;
+        Stores.addChangeListener(credentials::invalidateUnknown);
+    }
+
+    public SchedulerStore getDelegate() {
+        return delegate;
+    }
+
+    public CredentialCache getCredentialCache() {
+        return credentials;
+    }
+
+    @Override
+    public void insertAccount(AccountType type, Credentials account) throws SQLException {
+        try {
+            delegate.insertAccount(type, account);
+        } finally {
+            credentials.invalidate(type, account.getUsername());
+        }
+    }
+
+    @Override
+    public Set<String> insertAccounts(AccountType type, List<Credentials> accounts) throws SQLException {
+        try {
+            return delegate.insertAccounts(type, accounts);
+        } finally {
+            for (Credentials account : accounts) {
+                credentials.invalidate(type, account.getUsername());
+            }
+        }
+    }
+
+    @Override
+    public boolean accountExists(AccountType type, String username) throws SQLException {
+        return delegate.accountExists(type, username);
+    }
+
+    @Override
+    public Set<String> findExistingAccounts(AccountType type, Collection<String> usernames) throws SQLException {
+        return delegate.findExistingAccounts(type, usernames);
+    }
+
+    @Override
+    public Credentials findCredentials(AccountType type, String username) throws SQLException {
+        return credentials.get(type, username, () -> delegate.findCredentials(type, username));
+    }
+
+    @Override
+    public void updateCredentials(AccountType type, Credentials account) throws SQLException {
+        try {
+            delegate.updateCredentials(type, account);
+        } finally {
+            credentials.invalidate(type, account.getUsername());
+        }
+    }
+
+    @Override
+    public void insertVaccine(String vaccineName, int doses) throws SQLException {
+        delegate.insertVaccine(vaccineName, doses);
+    }
+
+    @Override
+    public int availableDoses(String vaccineName) throws SQLException {
+        return delegate.availableDoses(vaccineName);
+    }
+
+    @Override
+    public boolean addDoses(String vaccineName, int num) throws SQLException {
+        return delegate.addDoses(vaccineName, num);
+    }
+
+    @Override
+    public SortedMap<String, Integer> receiveDoses(Map<String, Integer> shipment) throws SQLException {
+        return delegate.receiveDoses(shipment);
+    }
+
+    @Override
+    public boolean takeDoses(String vaccineName, int num) throws SQLException {
+        return delegate.takeDoses(vaccineName, num);
+    }
+
+    @Override
+    public SortedMap<String, Integer> vaccineStock() throws SQLException {
+        return delegate.vaccineStock();
+    }
+
+    @Override
+    public List<Slot> addAvailability(String caregiverUsername, SortedSet<Date> dates, long slots)
+            throws SQLException {
+        return delegate.addAvailability(caregiverUsername, dates, slots);
+    }
+
+    @Override
+    public List<Slot> freeSlots(Date date) throws SQLException {
+        return delegate.freeSlots(date);
+    }
+
+    @Override
+    public Reservation reserve(String patientUsername, Date date, int slot, String vaccineName,
+                               String preferredCaregiver) throws SQLException {
+        return delegate.reserve(patientUsername, date, slot, vaccineName, preferredCaregiver);
+    }
+
+    @Override
+    public List<Reservation> reserveBatch(Date date, String vaccineName, List<String> patientUsernames)
+            throws SQLException {
+        return delegate.reserveBatch(date, vaccineName, patientUsernames);
+    }
+
+    @Override
+    public Appointment.AppointmentCursor findAppointments(AccountType party, String username, Date fromDate,
+                                                          int afterId, int limit, int fetchSize) throws SQLException {
+        return delegate.findAppointments(party, username, fromDate, afterId, limit, fetchSize);
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String username) throws SQLException {
+        return delegate.cancelAppointment(appointmentId, username);
+    }
+
+    @Override
+    public List<Appointment> cancelCaregiverDay(String caregiverUsername, Date date) throws SQLException {
+        return delegate.cancelCaregiverDay(caregiverUsername, date);
+    }
+
+    @Override
+    public Set<String> findRecordedDeltas(Collection<String> deltaIds) throws SQLException {
+        return delegate.findRecordedDeltas(deltaIds);
+    }
+
+    @Override
+    public boolean recordDelta(String deltaId) throws SQLException {
+        return delegate.recordDelta(deltaId);
+    }
+
+    @Override
+    public Map<String, Integer> findDeltaAppointments(Collection<String> deltaIds) throws SQLException {
+        return delegate.findDeltaAppointments(deltaIds);
+    }
+
+    @Override
+    public Set<Integer> findExistingAppointments(Collection<Integer> appointmentIds) throws SQLException {
+        return delegate.findExistingAppointments(appointmentIds);
+    }
+
+    @Override
+    public Reservation reserveForDelta(String deltaId, String patientUsername, Date date, int slot,
+                                       String vaccineName, String preferredCaregiver) throws SQLException {
+        return delegate.reserveForDelta(deltaId, patientUsername, date, slot, vaccineName, preferredCaregiver);
+    }
+
+    @Override
+    public boolean changeDosesForDelta(String deltaId, String vaccineName, int change) throws SQLException {
+        return delegate.changeDosesForDelta(deltaId, vaccineName, change);
+    }
+}
@@ -0,0 +1,128 @@
+package scheduler.store;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of account credentials keyed by account type and username.
+ *
+ * Entries are kept in least-recently-used order and dropped once the cache holds more than
+ * maxSize of them or their time to live has passed. Unknown usernames are cached too, as a
+ * negative entry with its own (normally shorter) time to live, so a burst of logins for made-up
+ * names reaches the database once per name.
+ *
+ * Loads race with writes: a load that started before an invalidation must not put what it read
+ * back afterwards. Every invalidation therefore bumps a generation counter, and a loaded value is
+ * only cached if the generation is still the one seen when the load began.
+ */
+public class CredentialCache {
+
+    private static final LongAdder HITS = Metrics.counter("scheduler_credential_cache_total", "result", "hit");
+    private static final LongAdder NEGATIVE_HITS =
+            Metrics.counter("scheduler_credential_cache_total", "result", "negative_hit");
+    private static final LongAdder MISSES = Metrics.counter("scheduler_credential_cache_total", "result", "miss");
+    private static final LongAdder EVICTIONS = Metrics.counter("scheduler_credential_cache_evictions_total");
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final Map<String, Entry> entries;
+    private long generation;
+
+    public CredentialCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+        if (maxSize < 0 || ttlMillis < 0 || negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("Cache size and time to live cannot be negative!");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.negativeTtlNanos = negativeTtlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CredentialCache.Entry> eldest) {
+                if (size() > CredentialCache.this.maxSize) {
+                    EVICTIONS.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        Metrics.gauge("scheduler_credential_cache_entries", this::size);
+    }
+
+    /**
+     * Returns the cached credentials of an account, loading them on a miss. Returns null if there
+     * is no such account.
+     */
+    public Credentials get(AccountType type, String username, Loader loader) throws SQLException {
+        String key = key(type, username);
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+                (entry.credentials != null ? HITS : NEGATIVE_HITS).increment();
+                return entry.credentials;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+            loadGeneration = generation;
+        }
+        MISSES.increment();
+        Credentials credentials = loader.load();
+        long ttl = credentials != null ? ttlNanos : negativeTtlNanos;
+        synchronized (this) {
+            if (loadGeneration == generation && ttl > 0 && maxSize > 0) {
+                entries.put(key, new Entry(credentials, System.nanoTime() + ttl));
+            }
+        }
+        return credentials;
+    }
+
+    /**
+     * Drops the entry of an account, after it was created or its credentials changed.
+     */
+    public synchronized void invalidate(AccountType type, String username) {
+        generation++;
+        entries.remove(key(type, username));
+    }
+
+    /**
+     * Drops the negative entries, after accounts may have appeared without going through this
+     * cache (e.g. an offline store syncing with the central database).
+     */
+    public synchronized void invalidateUnknown() {
+        generation++;
+        entries.values().removeIf(entry -> entry.credentials == null);
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static String key(AccountType type, String username) {
+        return type.name() + ':' + username;
+    }
+
+    public interface Loader {
+        Credentials load() throws SQLException;
+    }
+
+    private static class Entry {
+        private final Credentials credentials;
+        private final long expiresAt;
+
+        Entry(Credentials credentials, long expiresAt) {
+            this.credentials = credentials;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.store;
+
+/**
+ * The stored login data of one account.
+ */
+public class Credentials {
+    private final String username;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    public Credentials(String username, byte[] salt, byte[] hash) {
+        this.username = username;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    // Getters
+    public String getUsername() {
+        return username;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+}
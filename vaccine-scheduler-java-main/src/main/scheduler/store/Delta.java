@@ -0,0 +1,169 @@
+package scheduler.store;
+
+import java.sql.Date;
+import java.util.UUID;
+
+/**
+ * One change made by an offline clinic, queued until it can be applied to the central database.
+ *
+ * Every delta has a random id that the central database records once the delta is applied, so
+ * sending it again (after a sync was cut off before its acknowledgement) does not apply it twice.
+ * Appointment ids are the ids of the clinic's local store; the sync maps them to central ids, and
+ * a cancellation names the reservation delta that booked its appointment so the central id can be
+ * looked up in the central database.
+ */
+public class Delta {
+    public enum Kind {
+        ACCOUNT_CREATED, CREDENTIALS_UPDATED, DOSES_ADDED, DOSES_TAKEN, AVAILABILITY_ADDED,
+        APPOINTMENT_RESERVED, APPOINTMENT_CANCELLED, CAREGIVER_DAY_CANCELLED
+    }
+
+    private final String id;
+    private final Kind kind;
+    private final AccountType accountType;
+    private final Credentials credentials;
+    // the patient or caregiver the change is made for or by
+    private final String username;
+    private final String vaccineName;
+    private final int doses;
+    private final Date date;
+    // the slots made available or booked on the date, as a bitmap (see Slot)
+    private final long slots;
+    private final int appointmentId;
+    private final String caregiverUsername;
+    // for APPOINTMENT_CANCELLED, the APPOINTMENT_RESERVED delta that booked the appointment, if known
+    private final String reservationId;
+
+    private Delta(Kind kind, AccountType accountType, Credentials credentials, String username, String vaccineName,
+                  int doses, Date date, long slots, int appointmentId, String caregiverUsername,
+                  String reservationId) {
+        this.id = UUID.randomUUID().toString();
+        this.kind = kind;
+        this.accountType = accountType;
+        this.credentials = credentials;
+        this.username = username;
+        this.vaccineName = vaccineName;
+        this.doses = doses;
+        this.date = date;
+        this.slots = slots;
+        this.appointmentId = appointmentId;
+        this.caregiverUsername = caregiverUsername;
+        this.reservationId = reservationId;
+    }
+
+    public static Delta accountCreated(AccountType type, Credentials credentials) {
+        return new Delta(Kind.ACCOUNT_CREATED, type, credentials, credentials.getUsername(), null, 0, null, 0, -1,
+                null, null);
+    }
+
+    public static Delta credentialsUpdated(AccountType type, Credentials credentials) {
+        return new Delta(Kind.CREDENTIALS_UPDATED, type, credentials, credentials.getUsername(), null, 0, null, 0,
+                -1, null, null);
+    }
+
+    public static Delta dosesAdded(String vaccineName, int doses) {
+        return new Delta(Kind.DOSES_ADDED, null, null, null, vaccineName, doses, null, 0, -1, null, null);
+    }
+
+    public static Delta dosesTaken(String vaccineName, int doses) {
+        return new Delta(Kind.DOSES_TAKEN, null, null, null, vaccineName, doses, null, 0, -1, null, null);
+    }
+
+    public static Delta availabilityAdded(String caregiverUsername, Date date, long slots) {
+        return new Delta(Kind.AVAILABILITY_ADDED, null, null, caregiverUsername, null, 0, date, slots, -1,
+                caregiverUsername, null);
+    }
+
+    public static Delta reserved(int appointmentId, String patientUsername, Date date, int slot, String vaccineName,
+                                 String caregiverUsername) {
+        return new Delta(Kind.APPOINTMENT_RESERVED, null, null, patientUsername, vaccineName, 1, date, 1L << slot,
+                appointmentId, caregiverUsername, null);
+    }
+
+    public static Delta cancelled(int appointmentId, String reservationId, String username) {
+        return new Delta(Kind.APPOINTMENT_CANCELLED, null, null, username, null, 0, null, 0, appointmentId,
+                null, reservationId);
+    }
+
+    public static Delta caregiverDayCancelled(String caregiverUsername, Date date) {
+        return new Delta(Kind.CAREGIVER_DAY_CANCELLED, null, null, caregiverUsername, null, 0, date, 0, -1,
+                caregiverUsername, null);
+    }
+
+    // Getters
+    public String getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public AccountType getAccountType() {
+        return accountType;
+    }
+
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public int getDoses() {
+        return doses;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public long getSlots() {
+        return slots;
+    }
+
+    /**
+     * Returns the booked slot of an APPOINTMENT_RESERVED delta.
+     */
+    public int getSlot() {
+        return Long.numberOfTrailingZeros(slots);
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getReservationId() {
+        return reservationId;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case ACCOUNT_CREATED:
+            case CREDENTIALS_UPDATED:
+                return kind + " " + accountType + " " + username;
+            case DOSES_ADDED:
+            case DOSES_TAKEN:
+                return kind + " " + vaccineName + " " + doses;
+            case APPOINTMENT_RESERVED:
+                return kind + " #" + appointmentId + " " + date + " " + Slot.startOf(getSlot()) + " " + username
+                        + " " + caregiverUsername + " " + vaccineName;
+            case APPOINTMENT_CANCELLED:
+                return kind + " #" + appointmentId + " by " + username;
+            case AVAILABILITY_ADDED:
+                return kind + " " + caregiverUsername + " " + date + " " + Slot.describe(slots);
+            default:
+                return kind + " " + caregiverUsername + " " + date;
+        }
+    }
+}
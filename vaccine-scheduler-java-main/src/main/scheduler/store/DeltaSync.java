@@ -0,0 +1,295 @@
+package scheduler.store;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Applies an offline clinic's deltas to the central database, in the order they were made.
+ *
+ * The central database is the authority: a delta that no longer fits its state is resolved by a
+ * fixed rule, so two clinics that sync the same deltas in the same order always end up with the
+ * same result:
+ *   - an account whose username was taken centrally in the meantime is rejected (the central
+ *     account wins)
+ *   - a reservation keeps its slot, and its caregiver if the caregiver is still free then,
+ *     otherwise moves to the first caregiver free in that slot by username; it is rejected (and
+ *     cancelled locally) if the vaccine ran out or no caregiver is free in that slot
+ *   - taking doses that are no longer there, cancelling an appointment that never reached the
+ *     central database and uploading slots that are all already free or booked are rejected
+ * A rejected delta is still recorded as applied, so it is not retried.
+ *
+ * Deltas that change a count (doses, reservations) are applied and recorded in one transaction, so
+ * a sync cut off in between cannot apply them twice. The others are recorded after being applied;
+ * applying one of them a second time changes nothing.
+ *
+ * The central database also records the appointment each reservation delta booked. A cancellation
+ * names its reservation delta, so it finds the central appointment even if the reservation was
+ * acknowledged by an earlier, cut-off sync or by a process that has since restarted.
+ */
+class DeltaSync {
+
+    enum Outcome { APPLIED, ALREADY_APPLIED, ADJUSTED, REJECTED }
+
+    private static final Map<Outcome, LongAdder> OUTCOMES = new EnumMap<>(Outcome.class);
+
+    static {
+        for (Outcome outcome : Outcome.values()) {
+            OUTCOMES.put(outcome, Metrics.counter("scheduler_sync_deltas_total", "outcome",
+                    outcome.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    private final MemoryStore local;
+    private final SchedulerStore central;
+    private final Consumer<String> conflictLog;
+    // local appointment id -> its synced reservation, for noticing central cancels; upcoming only
+    private final Map<Integer, Synced> synced = new ConcurrentHashMap<>();
+
+    DeltaSync(MemoryStore local, SchedulerStore central, Consumer<String> conflictLog) {
+        this.local = local;
+        this.central = central;
+        this.conflictLog = conflictLog;
+    }
+
+    /**
+     * Applies a batch of deltas, passing each one to done once it has been applied and recorded.
+     * Stops with the exception if the central database cannot be reached; the deltas not passed to
+     * done have to be sent again.
+     */
+    void push(List<Delta> batch, Consumer<Delta> done) throws SQLException {
+        List<String> ids = new ArrayList<>(batch.size());
+        for (Delta delta : batch) {
+            ids.add(delta.getId());
+        }
+        Set<String> recorded = central.findRecordedDeltas(ids);
+        List<Delta> appliedReservations = new ArrayList<>();
+        for (Delta delta : batch) {
+            if (delta.getKind() == Delta.Kind.APPOINTMENT_RESERVED && recorded.contains(delta.getId())) {
+                appliedReservations.add(delta);
+            }
+        }
+        track(appliedReservations);
+        for (Delta delta : batch) {
+            Outcome outcome;
+            if (recorded.contains(delta.getId())) {
+                outcome = Outcome.ALREADY_APPLIED;
+            } else {
+                outcome = apply(delta);
+                // a rejected delta may have failed before its own transaction could record it
+                if (!recordsItself(delta) || outcome == Outcome.REJECTED) {
+                    central.recordDelta(delta.getId());
+                }
+            }
+            OUTCOMES.get(outcome).increment();
+            done.accept(delta);
+        }
+    }
+
+    private Outcome apply(Delta delta) throws SQLException {
+        try {
+            switch (delta.getKind()) {
+                case ACCOUNT_CREATED:
+                    return applyAccount(delta);
+                case CREDENTIALS_UPDATED:
+                    central.updateCredentials(delta.getAccountType(), delta.getCredentials());
+                    return Outcome.APPLIED;
+                case DOSES_ADDED:
+                    central.changeDosesForDelta(delta.getId(), delta.getVaccineName(), delta.getDoses());
+                    return Outcome.APPLIED;
+                case DOSES_TAKEN:
+                    if (central.changeDosesForDelta(delta.getId(), delta.getVaccineName(), -delta.getDoses())) {
+                        return Outcome.APPLIED;
+                    }
+                    return reject(delta, "not enough doses left");
+                case AVAILABILITY_ADDED:
+                    if (central.addAvailability(delta.getCaregiverUsername(),
+                            new TreeSet<>(Collections.singleton(delta.getDate())), delta.getSlots()).isEmpty()) {
+                        return reject(delta, "the caregiver is already free or booked in those slots");
+                    }
+                    return Outcome.APPLIED;
+                case APPOINTMENT_RESERVED:
+                    return applyReservation(delta);
+                case APPOINTMENT_CANCELLED: {
+                    Integer centralId = centralId(delta);
+                    if (centralId == null) {
+                        return reject(delta, "the reservation never reached the central database");
+                    }
+                    if (central.cancelAppointment(centralId, delta.getUsername()) == null) {
+                        return reject(delta, "appointment " + centralId + " is already cancelled");
+                    }
+                    return Outcome.APPLIED;
+                }
+                case CAREGIVER_DAY_CANCELLED:
+                    central.cancelCaregiverDay(delta.getCaregiverUsername(), delta.getDate());
+                    return Outcome.APPLIED;
+                default:
+                    throw new IllegalArgumentException("Unknown delta " + delta.getKind());
+            }
+        } catch (SQLException e) {
+            // a constraint violation is a conflict with the central data; anything else means the
+            // central database could not be reached
+            if (!isIntegrityViolation(e)) {
+                throw e;
+            }
+            if (recordsItself(delta)
+                    && !central.findRecordedDeltas(Collections.singleton(delta.getId())).isEmpty()) {
+                if (delta.getKind() == Delta.Kind.APPOINTMENT_RESERVED) {
+                    track(Collections.singletonList(delta));
+                }
+                return Outcome.ALREADY_APPLIED;
+            }
+            return reject(delta, e.getMessage());
+        }
+    }
+
+    private static boolean recordsItself(Delta delta) {
+        switch (delta.getKind()) {
+            case DOSES_ADDED:
+            case DOSES_TAKEN:
+            case APPOINTMENT_RESERVED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private Outcome applyAccount(Delta delta) throws SQLException {
+        Credentials credentials = delta.getCredentials();
+        try {
+            central.insertAccount(delta.getAccountType(), credentials);
+            return Outcome.APPLIED;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            Credentials existing = central.findCredentials(delta.getAccountType(), credentials.getUsername());
+            if (existing != null && Arrays.equals(existing.getSalt(), credentials.getSalt())
+                    && Arrays.equals(existing.getHash(), credentials.getHash())) {
+                // created by this very delta before its acknowledgement was lost
+                return Outcome.ALREADY_APPLIED;
+            }
+            return reject(delta, "the username was taken on the central database");
+        }
+    }
+
+    private Outcome applyReservation(Delta delta) throws SQLException {
+        Reservation reservation = central.reserveForDelta(delta.getId(), delta.getUsername(), delta.getDate(),
+                delta.getSlot(), delta.getVaccineName(), delta.getCaregiverUsername());
+        if (reservation.isReserved()) {
+            synced.put(delta.getAppointmentId(), new Synced(reservation.getAppointmentId(), delta.getDate()));
+            if (reservation.getCaregiverUsername().equals(delta.getCaregiverUsername())) {
+                return Outcome.APPLIED;
+            }
+            local.reassign(delta.getAppointmentId(), reservation.getCaregiverUsername());
+            conflictLog.accept("Sync: " + delta + " moved to caregiver " + reservation.getCaregiverUsername()
+                    + " as appointment " + reservation.getAppointmentId());
+            return Outcome.ADJUSTED;
+        }
+        local.cancelAppointment(delta.getAppointmentId(), delta.getUsername());
+        return reject(delta, reservation.getStatus() == Reservation.Status.NO_DOSES
+                ? "no doses left" : "no caregiver free in that slot");
+    }
+
+    // tracks reservations applied by an earlier sync whose acknowledgement was lost
+    private void track(List<Delta> reservations) throws SQLException {
+        if (reservations.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(reservations.size());
+        for (Delta delta : reservations) {
+            ids.add(delta.getId());
+        }
+        Map<String, Integer> booked = central.findDeltaAppointments(ids);
+        for (Delta delta : reservations) {
+            Integer centralId = booked.get(delta.getId());
+            if (centralId != null) {
+                synced.put(delta.getAppointmentId(), new Synced(centralId, delta.getDate()));
+            }
+        }
+    }
+
+    // the central id of a cancelled appointment, from the central database if it is not tracked
+    private Integer centralId(Delta cancellation) throws SQLException {
+        Synced reservation = synced.remove(cancellation.getAppointmentId());
+        if (reservation != null) {
+            return reservation.centralId;
+        }
+        String reservationId = cancellation.getReservationId();
+        if (reservationId == null) {
+            return null;
+        }
+        return central.findDeltaAppointments(Collections.singleton(reservationId)).get(reservationId);
+    }
+
+    /**
+     * Returns the local ids of synced appointments that the central database no longer has, e.g.
+     * because another clinic cancelled the caregiver's day. Appointments whose day has passed are
+     * no longer tracked.
+     */
+    Set<Integer> findCancelledCentrally() throws SQLException {
+        LocalDate today = LocalDate.now();
+        synced.values().removeIf(reservation -> reservation.date.toLocalDate().isBefore(today));
+        Map<Integer, Integer> localIds = new HashMap<>();
+        for (Map.Entry<Integer, Synced> entry : synced.entrySet()) {
+            localIds.put(entry.getValue().centralId, entry.getKey());
+        }
+        Set<Integer> existing = central.findExistingAppointments(localIds.keySet());
+        Set<Integer> cancelled = new HashSet<>();
+        for (Map.Entry<Integer, Integer> entry : localIds.entrySet()) {
+            if (!existing.contains(entry.getKey())) {
+                cancelled.add(entry.getValue());
+            }
+        }
+        return cancelled;
+    }
+
+    // stops tracking appointments once they were dropped locally
+    void forget(Collection<Integer> appointmentIds) {
+        synced.keySet().removeAll(appointmentIds);
+    }
+
+    private Outcome reject(Delta delta, String reason) {
+        conflictLog.accept("Sync: " + delta + " rejected: " + reason);
+        return Outcome.REJECTED;
+    }
+
+    private static boolean isIntegrityViolation(SQLException e) {
+        // the stores wrap driver exceptions, so look through the causes
+        for (Throwable cur = e; cur != null; cur = cur.getCause()) {
+            if (cur instanceof SQLIntegrityConstraintViolationException) {
+                return true;
+            }
+            if (cur instanceof SQLException && ((SQLException) cur).getSQLState() != null
+                    && ((SQLException) cur).getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Synced {
+        private final int centralId;
+        private final Date date;
+
+        private Synced(int centralId, Date date) {
+            this.centralId = centralId;
+            this.date = date;
+        }
+    }
+}
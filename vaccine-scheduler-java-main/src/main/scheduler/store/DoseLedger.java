@@ -0,0 +1,339 @@
+package scheduler.store;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Applies dose changes as deltas on the server instead of writing back a value computed on the
+ * client, so concurrent add_doses and reserve calls can never overwrite each other.
+ *
+ * The available stock of a vaccine is Vaccines.Doses plus the sum of its rows in
+ * VaccineDoseStripes. With striping enabled (the DoseStripes environment variable, 0 by default)
+ * intake is spread over that many stripe rows, and takes drain whichever stripe is not currently
+ * locked before falling back to the base row, so a burst of traffic on one vaccine no longer
+ * serializes on a single row lock. A take larger than any one row drains several of them.
+ */
+public class DoseLedger {
+
+    /**
+     * A T-SQL fragment that takes @count doses of @vaccine, preferring unlocked stripes, and
+     * leaves 1 in @taken if it did and 0 if there were not enough. Callers declare all three
+     * variables and run it inside a transaction with XACT_ABORT on; this lets other batches (e.g. a
+     * reservation) take doses inside their own transaction.
+     *
+     * When no single row holds @count doses but the stripes and the base row do together, the
+     * vaccine's rows are locked and drained in stripe order, the base row making up the rest.
+     */
+    public static final String TAKE_FRAGMENT =
+            "UPDATE TOP (1) VaccineDoseStripes WITH (ROWLOCK, READPAST) SET Doses = Doses - @count " +
+            "WHERE Name = @vaccine AND Doses >= @count; " +
+            "SET @taken = @@ROWCOUNT; " +
+            "IF @taken = 0 " +
+            "BEGIN " +
+            "    UPDATE TOP (1) VaccineDoseStripes WITH (ROWLOCK) SET Doses = Doses - @count " +
+            "    WHERE Name = @vaccine AND Doses >= @count; " +
+            "    SET @taken = @@ROWCOUNT; " +
+            "END; " +
+            "IF @taken = 0 " +
+            "BEGIN " +
+            "    UPDATE Vaccines SET Doses = Doses - @count WHERE Name = @vaccine AND Doses >= @count; " +
+            "    SET @taken = @@ROWCOUNT; " +
+            "END; " +
+            "IF @taken = 0 AND @count > 1 AND (" +
+            "    SELECT SUM(Doses) FROM (" +
+            "        SELECT Doses FROM Vaccines WITH (UPDLOCK, HOLDLOCK) WHERE Name = @vaccine " +
+            "        UNION ALL " +
+            "        SELECT Doses FROM VaccineDoseStripes WITH (UPDLOCK, HOLDLOCK) WHERE Name = @vaccine) d" +
+            ") >= @count " +
+            "BEGIN " +
+            // the base row gives what the stripes cannot, then the stripes give the rest
+            "    UPDATE v SET Doses = v.Doses - (@count - s.Total) FROM Vaccines v " +
+            "    CROSS JOIN (SELECT ISNULL(SUM(Doses), 0) AS Total FROM VaccineDoseStripes " +
+            "        WHERE Name = @vaccine AND Doses > 0) s " +
+            "    WHERE v.Name = @vaccine AND s.Total < @count; " +
+            "    ;WITH drain AS (" +
+            "        SELECT Doses, SUM(Doses) OVER (ORDER BY Stripe ROWS UNBOUNDED PRECEDING) AS Running " +
+            "        FROM VaccineDoseStripes WHERE Name = @vaccine AND Doses > 0) " +
+            "    UPDATE drain SET Doses = CASE WHEN Running <= @count THEN 0 ELSE Running - @count END " +
+            "    WHERE Running - Doses < @count; " +
+            "    SET @taken = 1; " +
+            "END; ";
+
+    /**
+     * A SQL expression for the total available doses of the Vaccines row aliased as v.
+     */
+    public static final String AVAILABLE_EXPRESSION =
+            "(v.Doses + ISNULL((SELECT SUM(s.Doses) FROM VaccineDoseStripes s WHERE s.Name = v.Name), 0))";
+
+    private static final int FOREIGN_KEY_VIOLATION = 547;
+    private static final int DUPLICATE_KEY = 2627;
+
+    private static final String ADD_TO_BASE = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+
+    private static final String ADD_TO_STRIPE =
+            "MERGE VaccineDoseStripes WITH (HOLDLOCK) AS s " +
+            "USING (SELECT ? AS Name, ? AS Stripe, ? AS Delta) AS d " +
+            "ON s.Name = d.Name AND s.Stripe = d.Stripe " +
+            "WHEN MATCHED THEN UPDATE SET Doses = s.Doses + d.Delta " +
+            "WHEN NOT MATCHED THEN INSERT (Name, Stripe, Doses) VALUES (d.Name, d.Stripe, d.Delta);";
+
+    private static final String TAKE =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @vaccine varchar(255) = ?, @count int = ?, @taken int = 0; " +
+            "BEGIN TRANSACTION; " +
+            TAKE_FRAGMENT +
+            "COMMIT TRANSACTION; " +
+            "SELECT @taken;";
+
+    // an offline clinic's dose change, recorded in the same transaction; adds go to the base row
+    private static final String CHANGE_FOR_DELTA =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @delta char(36) = ?, @vaccine varchar(255) = ?, @change int = ?, @count int, @taken int = 0; " +
+            "BEGIN TRANSACTION; " +
+            "INSERT INTO SyncedDeltas (DeltaID) VALUES (@delta); " +
+            "IF @change > 0 " +
+            "BEGIN " +
+            "    MERGE Vaccines WITH (HOLDLOCK) AS v " +
+            "    USING (SELECT @vaccine AS Name) AS d ON v.Name = d.Name " +
+            "    WHEN MATCHED THEN UPDATE SET Doses = v.Doses + @change " +
+            "    WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (d.Name, @change); " +
+            "    SET @taken = 1; " +
+            "END " +
+            "ELSE " +
+            "BEGIN " +
+            "    SET @count = -@change; " +
+            TAKE_FRAGMENT +
+            "END; " +
+            "COMMIT TRANSACTION; " +
+            "SELECT @taken;";
+
+    private static final String AVAILABLE =
+            "SELECT " + AVAILABLE_EXPRESSION + " FROM Vaccines v WHERE v.Name = ?";
+
+    // SQL Server takes at most 2100 parameters per statement; a shipment row binds three
+    private static final int MAX_SHIPMENT_ROWS = 512;
+
+    private final int stripes;
+
+    public DoseLedger() {
+        this(configuredStripes());
+    }
+
+    public DoseLedger(int stripes) {
+        if (stripes < 0) {
+            throw new IllegalArgumentException("Stripe count cannot be negative!");
+        }
+        this.stripes = stripes;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Adds doses to an existing vaccine. Returns false if the vaccine does not exist.
+     */
+    public boolean add(String vaccineName, int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            if (stripes == 0) {
+                try (PreparedStatement statement = con.prepareStatement(ADD_TO_BASE)) {
+                    statement.setInt(1, num);
+                    statement.setString(2, vaccineName);
+                    return statement.executeUpdate() > 0;
+                }
+            }
+            try (PreparedStatement statement = con.prepareStatement(ADD_TO_STRIPE)) {
+                statement.setString(1, vaccineName);
+                statement.setInt(2, ThreadLocalRandom.current().nextInt(stripes));
+                statement.setInt(3, num);
+                statement.executeUpdate();
+                return true;
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() == FOREIGN_KEY_VIOLATION) {
+                // the stripe's vaccine does not exist
+                return false;
+            }
+            throw new SQLException("Error adding doses: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Receives a shipment: adds doses to every vaccine in it, creating the vaccines that do not
+     * exist yet, and returns the available doses of each afterwards, ordered by name.
+     *
+     * Each chunk of up to MAX_SHIPMENT_ROWS vaccines is one batch and one transaction: a MERGE on
+     * Vaccines under HOLDLOCK inserts new vaccines (so two caregivers receiving the same new
+     * vaccine cannot both try to insert it) and, without striping, adds to existing ones; with
+     * striping the doses for existing vaccines go to a random stripe instead.
+     */
+    public SortedMap<String, Integer> receive(Map<String, Integer> shipment) throws SQLException {
+        for (int num : shipment.values()) {
+            if (num <= 0) {
+                throw new IllegalArgumentException("Argument cannot be negative!");
+            }
+        }
+        SortedMap<String, Integer> stock = new TreeMap<>();
+        List<Map.Entry<String, Integer>> rows = new ArrayList<>(shipment.entrySet());
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (int from = 0; from < rows.size(); from += MAX_SHIPMENT_ROWS) {
+                List<Map.Entry<String, Integer>> chunk =
+                        rows.subList(from, Math.min(rows.size(), from + MAX_SHIPMENT_ROWS));
+                int slots = SqlText.bucket(chunk.size());
+                try (PreparedStatement statement = con.prepareStatement(receiveBatch(slots))) {
+                    int index = 1;
+                    for (Map.Entry<String, Integer> row : chunk) {
+                        statement.setString(index++, row.getKey());
+                        statement.setInt(index++, row.getValue());
+                        if (stripes == 0) {
+                            statement.setNull(index++, Types.INTEGER);
+                        } else {
+                            statement.setInt(index++, ThreadLocalRandom.current().nextInt(stripes));
+                        }
+                    }
+                    // spare rows are all NULL and skipped by the batch
+                    while (index <= 3 * slots) {
+                        statement.setNull(index++, Types.VARCHAR);
+                        statement.setNull(index++, Types.INTEGER);
+                        statement.setNull(index++, Types.INTEGER);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            stock.put(resultSet.getString(1), resultSet.getInt(2));
+                        }
+                    }
+                }
+            }
+            return stock;
+        } catch (SQLException e) {
+            throw new SQLException("Error receiving doses: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // rows with a NULL stripe are added to the base row; new vaccines always start in the base row
+    private static String receiveBatch(int rows) {
+        return "SET NOCOUNT ON; " +
+                "SET XACT_ABORT ON; " +
+                "DECLARE @shipment TABLE (Name varchar(255) PRIMARY KEY, Delta int, Stripe int); " +
+                "DECLARE @based TABLE (Name varchar(255)); " +
+                "INSERT INTO @shipment (Name, Delta, Stripe) " +
+                "SELECT Name, Delta, Stripe FROM (VALUES " + SqlText.repeat("(?, ?, ?)", rows) + ") " +
+                "AS r (Name, Delta, Stripe) WHERE Name IS NOT NULL; " +
+                "BEGIN TRANSACTION; " +
+                "MERGE Vaccines WITH (HOLDLOCK) AS v " +
+                "USING @shipment AS d ON v.Name = d.Name " +
+                "WHEN MATCHED AND d.Stripe IS NULL THEN UPDATE SET Doses = v.Doses + d.Delta " +
+                "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (d.Name, d.Delta) " +
+                "OUTPUT d.Name INTO @based; " +
+                "MERGE VaccineDoseStripes WITH (HOLDLOCK) AS s " +
+                "USING (SELECT Name, Stripe, Delta FROM @shipment " +
+                "       WHERE Stripe IS NOT NULL AND Name NOT IN (SELECT Name FROM @based)) AS d " +
+                "ON s.Name = d.Name AND s.Stripe = d.Stripe " +
+                "WHEN MATCHED THEN UPDATE SET Doses = s.Doses + d.Delta " +
+                "WHEN NOT MATCHED THEN INSERT (Name, Stripe, Doses) VALUES (d.Name, d.Stripe, d.Delta); " +
+                "COMMIT TRANSACTION; " +
+                "SELECT v.Name, " + AVAILABLE_EXPRESSION + " FROM Vaccines v " +
+                "WHERE v.Name IN (SELECT Name FROM @shipment);";
+    }
+
+    /**
+     * Takes doses if enough are available, from a single stripe or the base row where one holds
+     * them all and from several rows otherwise. Returns false without changing anything if there
+     * are not enough.
+     */
+    public boolean take(String vaccineName, int num) throws SQLException {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(TAKE)) {
+            statement.setString(1, vaccineName);
+            statement.setInt(2, num);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(1) > 0;
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error taking doses: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Adds (or, for a negative change, takes) doses for an offline clinic's delta and records the
+     * delta in the same transaction. Returns false if there were not enough doses to take, in
+     * which case only the delta is recorded.
+     */
+    public boolean changeForDelta(String deltaId, String vaccineName, int change) throws SQLException {
+        if (change == 0) {
+            throw new IllegalArgumentException("Argument cannot be zero!");
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(CHANGE_FOR_DELTA)) {
+            statement.setString(1, deltaId);
+            statement.setString(2, vaccineName);
+            statement.setInt(3, change);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(1) > 0;
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() == DUPLICATE_KEY) {
+                throw new SQLIntegrityConstraintViolationException("Delta " + deltaId + " already applied",
+                        e.getSQLState(), e.getErrorCode(), e);
+            }
+            throw new SQLException("Error changing doses: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Returns the total available doses, or -1 if the vaccine does not exist.
+     */
+    public int available(String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(AVAILABLE)) {
+            statement.setString(1, vaccineName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : -1;
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error reading doses: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static int configuredStripes() {
+        String value = System.getenv("DoseStripes");
+        return value == null ? 0 : Integer.parseInt(value.trim());
+    }
+}
@@ -0,0 +1,193 @@
+package scheduler.store;
+
+import scheduler.metrics.Histogram;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Wraps a store and records the latency and failures of every operation under
+ * scheduler_store_seconds / scheduler_store_errors_total, labelled with the operation name.
+ * On SQL Server each operation is one statement or batch, so this is the per-statement timing.
+ */
+public class InstrumentedStore implements SchedulerStore {
+
+    private final SchedulerStore delegate;
+
+    public InstrumentedStore(SchedulerStore delegate) {
+        this.delegate = delegate;
+    }
+
+    public SchedulerStore getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void insertAccount(AccountType type, Credentials credentials) throws SQLException {
+        time("insertAccount", () -> {
+            delegate.insertAccount(type, credentials);
+            return null;
+        });
+    }
+
+    @Override
+    public Set<String> insertAccounts(AccountType type, List<Credentials> accounts) throws SQLException {
+        return time("insertAccounts", () -> delegate.insertAccounts(type, accounts));
+    }
+
+    @Override
+    public boolean accountExists(AccountType type, String username) throws SQLException {
+        return time("accountExists", () -> delegate.accountExists(type, username));
+    }
+
+    @Override
+    public Set<String> findExistingAccounts(AccountType type, Collection<String> usernames) throws SQLException {
+        return time("findExistingAccounts", () -> delegate.findExistingAccounts(type, usernames));
+    }
+
+    @Override
+    public Credentials findCredentials(AccountType type, String username) throws SQLException {
+        return time("findCredentials", () -> delegate.findCredentials(type, username));
+    }
+
+    @Override
+    public void updateCredentials(AccountType type, Credentials credentials) throws SQLException {
+        time("updateCredentials", () -> {
+            delegate.updateCredentials(type, credentials);
+            return null;
+        });
+    }
+
+    @Override
+    public void insertVaccine(String vaccineName, int doses) throws SQLException {
+        time("insertVaccine", () -> {
+            delegate.insertVaccine(vaccineName, doses);
+            return null;
+        });
+    }
+
+    @Override
+    public int availableDoses(String vaccineName) throws SQLException {
+        return time("availableDoses", () -> delegate.availableDoses(vaccineName));
+    }
+
+    @Override
+    public boolean addDoses(String vaccineName, int num) throws SQLException {
+        return time("addDoses", () -> delegate.addDoses(vaccineName, num));
+    }
+
+    @Override
+    public SortedMap<String, Integer> receiveDoses(Map<String, Integer> shipment) throws SQLException {
+        return time("receiveDoses", () -> delegate.receiveDoses(shipment));
+    }
+
+    @Override
+    public boolean takeDoses(String vaccineName, int num) throws SQLException {
+        return time("takeDoses", () -> delegate.takeDoses(vaccineName, num));
+    }
+
+    @Override
+    public SortedMap<String, Integer> vaccineStock() throws SQLException {
+        return time("vaccineStock", delegate::vaccineStock);
+    }
+
+    @Override
+    public List<Slot> addAvailability(String caregiverUsername, SortedSet<Date> dates, long slots)
+            throws SQLException {
+        return time("addAvailability", () -> delegate.addAvailability(caregiverUsername, dates, slots));
+    }
+
+    @Override
+    public List<Slot> freeSlots(Date date) throws SQLException {
+        return time("freeSlots", () -> delegate.freeSlots(date));
+    }
+
+    @Override
+    public Reservation reserve(String patientUsername, Date date, int slot, String vaccineName,
+                               String preferredCaregiver) throws SQLException {
+        return time("reserve",
+                () -> delegate.reserve(patientUsername, date, slot, vaccineName, preferredCaregiver));
+    }
+
+    @Override
+    public List<Reservation> reserveBatch(Date date, String vaccineName, List<String> patientUsernames)
+            throws SQLException {
+        return time("reserveBatch", () -> delegate.reserveBatch(date, vaccineName, patientUsernames));
+    }
+
+    // measures running the query; reading the rows happens later, in the caller
+    @Override
+    public Appointment.AppointmentCursor findAppointments(AccountType party, String username, Date fromDate,
+                                                          int afterId, int limit, int fetchSize) throws SQLException {
+        return time("findAppointments",
+                () -> delegate.findAppointments(party, username, fromDate, afterId, limit, fetchSize));
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String username) throws SQLException {
+        return time("cancelAppointment", () -> delegate.cancelAppointment(appointmentId, username));
+    }
+
+    @Override
+    public List<Appointment> cancelCaregiverDay(String caregiverUsername, Date date) throws SQLException {
+        return time("cancelCaregiverDay", () -> delegate.cancelCaregiverDay(caregiverUsername, date));
+    }
+
+    @Override
+    public Set<String> findRecordedDeltas(Collection<String> deltaIds) throws SQLException {
+        return time("findRecordedDeltas", () -> delegate.findRecordedDeltas(deltaIds));
+    }
+
+    @Override
+    public boolean recordDelta(String deltaId) throws SQLException {
+        return time("recordDelta", () -> delegate.recordDelta(deltaId));
+    }
+
+    @Override
+    public Map<String, Integer> findDeltaAppointments(Collection<String> deltaIds) throws SQLException {
+        return time("findDeltaAppointments", () -> delegate.findDeltaAppointments(deltaIds));
+    }
+
+    @Override
+    public Set<Integer> findExistingAppointments(Collection<Integer> appointmentIds) throws SQLException {
+        return time("findExistingAppointments", () -> delegate.findExistingAppointments(appointmentIds));
+    }
+
+    @Override
+    public Reservation reserveForDelta(String deltaId, String patientUsername, Date date, int slot,
+                                       String vaccineName, String preferredCaregiver) throws SQLException {
+        return time("reserveForDelta",
+                () -> delegate.reserveForDelta(deltaId, patientUsername, date, slot, vaccineName,
+                        preferredCaregiver));
+    }
+
+    @Override
+    public boolean changeDosesForDelta(String deltaId, String vaccineName, int change) throws SQLException {
+        return time("changeDosesForDelta", () -> delegate.changeDosesForDelta(deltaId, vaccineName, change));
+    }
+
+    private static <T> T time(String operation, Operation<T> call) throws SQLException {
+        Histogram histogram = Metrics.histogram("scheduler_store_seconds", "operation", operation);
+        long start = System.nanoTime();
+        try {
+            return call.run();
+        } catch (SQLException | RuntimeException e) {
+            Metrics.counter("scheduler_store_errors_total", "operation", operation).increment();
+            throw e;
+        } finally {
+            histogram.recordSince(start);
+        }
+    }
+
+    private interface Operation<T> {
+        T run() throws SQLException;
+    }
+}
@@ -0,0 +1,243 @@
+package scheduler.store;
+
+import scheduler.journal.Event;
+import scheduler.journal.Journal;
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Wraps a store and appends an Event to a Journal for every state change that went through, after
+ * the delegate returned successfully. Reads and failed or rejected writes are not journalled.
+ *
+ * Sitting at the store rather than in the command handlers means every way of changing state
+ * (the CLI, the pipeline, import_users, the benchmarks) is captured the same way.
+ */
+public class JournalingStore implements SchedulerStore {
+
+    private final SchedulerStore delegate;
+    private final Journal journal;
+
+    public JournalingStore(SchedulerStore delegate, Journal journal) {
+        this.delegate = delegate;
+        this.journal = journal;
+    }
+
+    public SchedulerStore getDelegate() {
+        return delegate;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public void insertAccount(AccountType type, Credentials account) throws SQLException {
+        delegate.insertAccount(type, account);
+        append(Event.Type.ACCOUNT_CREATED, type.name(), account.getUsername());
+    }
+
+    @Override
+    public Set<String> insertAccounts(AccountType type, List<Credentials> accounts) throws SQLException {
+        Set<String> rejected = delegate.insertAccounts(type, accounts);
+        for (Credentials account : accounts) {
+            if (!rejected.contains(account.getUsername())) {
+                append(Event.Type.ACCOUNT_CREATED, type.name(), account.getUsername());
+            }
+        }
+        return rejected;
+    }
+
+    @Override
+    public boolean accountExists(AccountType type, String username) throws SQLException {
+        return delegate.accountExists(type, username);
+    }
+
+    @Override
+    public Set<String> findExistingAccounts(AccountType type, Collection<String> usernames) throws SQLException {
+        return delegate.findExistingAccounts(type, usernames);
+    }
+
+    @Override
+    public Credentials findCredentials(AccountType type, String username) throws SQLException {
+        return delegate.findCredentials(type, username);
+    }
+
+    @Override
+    public void updateCredentials(AccountType type, Credentials account) throws SQLException {
+        delegate.updateCredentials(type, account);
+        append(Event.Type.CREDENTIALS_UPDATED, type.name(), account.getUsername());
+    }
+
+    @Override
+    public void insertVaccine(String vaccineName, int doses) throws SQLException {
+        delegate.insertVaccine(vaccineName, doses);
+        append(Event.Type.DOSES_ADDED, vaccineName, String.valueOf(doses));
+    }
+
+    @Override
+    public int availableDoses(String vaccineName) throws SQLException {
+        return delegate.availableDoses(vaccineName);
+    }
+
+    @Override
+    public boolean addDoses(String vaccineName, int num) throws SQLException {
+        boolean added = delegate.addDoses(vaccineName, num);
+        if (added) {
+            append(Event.Type.DOSES_ADDED, vaccineName, String.valueOf(num));
+        }
+        return added;
+    }
+
+    @Override
+    public SortedMap<String, Integer> receiveDoses(Map<String, Integer> shipment) throws SQLException {
+        SortedMap<String, Integer> totals = delegate.receiveDoses(shipment);
+        for (Map.Entry<String, Integer> entry : shipment.entrySet()) {
+            append(Event.Type.DOSES_ADDED, entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        return totals;
+    }
+
+    @Override
+    public boolean takeDoses(String vaccineName, int num) throws SQLException {
+        boolean taken = delegate.takeDoses(vaccineName, num);
+        if (taken) {
+            append(Event.Type.DOSES_TAKEN, vaccineName, String.valueOf(num));
+        }
+        return taken;
+    }
+
+    @Override
+    public SortedMap<String, Integer> vaccineStock() throws SQLException {
+        return delegate.vaccineStock();
+    }
+
+    @Override
+    public List<Slot> addAvailability(String caregiverUsername, SortedSet<Date> dates, long slots)
+            throws SQLException {
+        List<Slot> added = delegate.addAvailability(caregiverUsername, dates, slots);
+        for (Slot slot : added) {
+            append(Event.Type.AVAILABILITY_ADDED, caregiverUsername, slot.getTime().toString(),
+                    String.valueOf(slot.getSlot()));
+        }
+        return added;
+    }
+
+    @Override
+    public List<Slot> freeSlots(Date date) throws SQLException {
+        return delegate.freeSlots(date);
+    }
+
+    @Override
+    public Reservation reserve(String patientUsername, Date date, int slot, String vaccineName,
+                               String preferredCaregiver) throws SQLException {
+        Reservation reservation = delegate.reserve(patientUsername, date, slot, vaccineName, preferredCaregiver);
+        if (reservation.isReserved()) {
+            appendReserved(reservation, date, patientUsername, vaccineName);
+        }
+        return reservation;
+    }
+
+    @Override
+    public List<Reservation> reserveBatch(Date date, String vaccineName, List<String> patientUsernames)
+            throws SQLException {
+        List<Reservation> reservations = delegate.reserveBatch(date, vaccineName, patientUsernames);
+        for (int i = 0; i < reservations.size(); i++) {
+            Reservation reservation = reservations.get(i);
+            if (reservation.isReserved()) {
+                appendReserved(reservation, date, patientUsernames.get(i), vaccineName);
+            }
+        }
+        return reservations;
+    }
+
+    @Override
+    public Appointment.AppointmentCursor findAppointments(AccountType party, String username, Date fromDate,
+                                                          int afterId, int limit, int fetchSize) throws SQLException {
+        return delegate.findAppointments(party, username, fromDate, afterId, limit, fetchSize);
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String username) throws SQLException {
+        Appointment cancelled = delegate.cancelAppointment(appointmentId, username);
+        if (cancelled != null) {
+            appendCancelled(cancelled);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public List<Appointment> cancelCaregiverDay(String caregiverUsername, Date date) throws SQLException {
+        List<Appointment> cancelled = delegate.cancelCaregiverDay(caregiverUsername, date);
+        for (Appointment appointment : cancelled) {
+            appendCancelled(appointment);
+        }
+        append(Event.Type.AVAILABILITY_WITHDRAWN, caregiverUsername, date.toString());
+        return cancelled;
+    }
+
+    @Override
+    public Set<String> findRecordedDeltas(Collection<String> deltaIds) throws SQLException {
+        return delegate.findRecordedDeltas(deltaIds);
+    }
+
+    @Override
+    public boolean recordDelta(String deltaId) throws SQLException {
+        return delegate.recordDelta(deltaId);
+    }
+
+    @Override
+    public Map<String, Integer> findDeltaAppointments(Collection<String> deltaIds) throws SQLException {
+        return delegate.findDeltaAppointments(deltaIds);
+    }
+
+    @Override
+    public Set<Integer> findExistingAppointments(Collection<Integer> appointmentIds) throws SQLException {
+        return delegate.findExistingAppointments(appointmentIds);
+    }
+
+    @Override
+    public Reservation reserveForDelta(String deltaId, String patientUsername, Date date, int slot,
+                                       String vaccineName, String preferredCaregiver) throws SQLException {
+        Reservation reservation =
+                delegate.reserveForDelta(deltaId, patientUsername, date, slot, vaccineName, preferredCaregiver);
+        if (reservation.isReserved()) {
+            appendReserved(reservation, date, patientUsername, vaccineName);
+        }
+        return reservation;
+    }
+
+    @Override
+    public boolean changeDosesForDelta(String deltaId, String vaccineName, int change) throws SQLException {
+        boolean changed = delegate.changeDosesForDelta(deltaId, vaccineName, change);
+        if (changed) {
+            append(change > 0 ? Event.Type.DOSES_ADDED : Event.Type.DOSES_TAKEN, vaccineName,
+                    String.valueOf(Math.abs(change)));
+        }
+        return changed;
+    }
+
+    private void appendReserved(Reservation reservation, Date date, String patientUsername, String vaccineName) {
+        append(Event.Type.APPOINTMENT_RESERVED, String.valueOf(reservation.getAppointmentId()), date.toString(),
+                patientUsername, reservation.getCaregiverUsername(), vaccineName,
+                String.valueOf(reservation.getSlot()));
+    }
+
+    private void appendCancelled(Appointment appointment) {
+        append(Event.Type.APPOINTMENT_CANCELLED, String.valueOf(appointment.getAppointmentId()),
+                appointment.getTime().toString(), appointment.getPatientUsername(),
+                appointment.getCaregiverUsername(), appointment.getVaccineName(),
+                String.valueOf(appointment.getSlot()));
+    }
+
+    private void append(Event.Type type, String... fields) {
+        journal.append(Event.now(type, fields));
+    }
+}
@@ -0,0 +1,498 @@
+package scheduler.store;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+/**
+ * An embedded store that keeps everything in memory, for running the scheduler on a laptop, in a
+ * clinic without an uplink or in tools, with no database to install.
+ *
+ * It enforces the same rules as the schema in resources/create.sql (unique usernames, one
+ * appointment per caregiver slot, doses never below zero, appointment ids assigned in increasing
+ * order, availability and appointments only for existing accounts) and rejects the same writes
+ * with an SQLIntegrityConstraintViolationException.
+ * All operations lock the whole store, which keeps every command atomic; state is lost when the
+ * process exits.
+ */
+public class MemoryStore implements SchedulerStore {
+
+    private static final int LOAD_WINDOW_DAYS = 7;
+
+    private final Map<AccountType, Map<String, Credentials>> accounts = new EnumMap<>(AccountType.class);
+    private final Map<String, Integer> doses = new TreeMap<>();
+    // free and booked slots of each caregiver and date, as bitmaps (see Slot)
+    private final Map<LocalDate, TreeMap<String, Long>> freeByDate = new HashMap<>();
+    private final Map<String, Map<LocalDate, Long>> bookedByCaregiver = new HashMap<>();
+    private final TreeMap<Integer, Appointment> appointments = new TreeMap<>();
+    private int nextAppointmentId = 1;
+    private final Set<String> recordedDeltas = new HashSet<>();
+    // reservation delta id -> the appointment it booked
+    private final Map<String, Integer> deltaAppointments = new HashMap<>();
+
+    public MemoryStore() {
+        for (AccountType type : AccountType.values()) {
+            accounts.put(type, new TreeMap<>());
+        }
+    }
+
+    @Override
+    public synchronized void insertAccount(AccountType type, Credentials credentials) throws SQLException {
+        if (accounts.get(type).putIfAbsent(credentials.getUsername(), credentials) != null) {
+            throw new SQLIntegrityConstraintViolationException("Username " + credentials.getUsername() +
+                    " already taken");
+        }
+    }
+
+    @Override
+    public synchronized Set<String> insertAccounts(AccountType type, List<Credentials> newAccounts) {
+        Set<String> rejected = new HashSet<>();
+        for (Credentials credentials : newAccounts) {
+            if (accounts.get(type).putIfAbsent(credentials.getUsername(), credentials) != null) {
+                rejected.add(credentials.getUsername());
+            }
+        }
+        return rejected;
+    }
+
+    @Override
+    public synchronized boolean accountExists(AccountType type, String username) {
+        return accounts.get(type).containsKey(username);
+    }
+
+    @Override
+    public synchronized Set<String> findExistingAccounts(AccountType type, Collection<String> usernames) {
+        Set<String> existing = new HashSet<>();
+        for (String username : usernames) {
+            if (accounts.get(type).containsKey(username)) {
+                existing.add(username);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public synchronized Credentials findCredentials(AccountType type, String username) {
+        return accounts.get(type).get(username);
+    }
+
+    @Override
+    public synchronized void updateCredentials(AccountType type, Credentials credentials) {
+        accounts.get(type).replace(credentials.getUsername(), credentials);
+    }
+
+    @Override
+    public synchronized void insertVaccine(String vaccineName, int num) throws SQLException {
+        if (doses.putIfAbsent(vaccineName, num) != null) {
+            throw new SQLIntegrityConstraintViolationException("Vaccine " + vaccineName + " already exists");
+        }
+    }
+
+    @Override
+    public synchronized int availableDoses(String vaccineName) {
+        return doses.getOrDefault(vaccineName, -1);
+    }
+
+    @Override
+    public synchronized boolean addDoses(String vaccineName, int num) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        return doses.computeIfPresent(vaccineName, (name, current) -> current + num) != null;
+    }
+
+    @Override
+    public synchronized SortedMap<String, Integer> receiveDoses(Map<String, Integer> shipment) {
+        for (int num : shipment.values()) {
+            if (num <= 0) {
+                throw new IllegalArgumentException("Argument cannot be negative!");
+            }
+        }
+        SortedMap<String, Integer> stock = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : shipment.entrySet()) {
+            stock.put(entry.getKey(), doses.merge(entry.getKey(), entry.getValue(), Integer::sum));
+        }
+        return stock;
+    }
+
+    @Override
+    public synchronized boolean takeDoses(String vaccineName, int num) {
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        Integer current = doses.get(vaccineName);
+        if (current == null || current < num) {
+            return false;
+        }
+        doses.put(vaccineName, current - num);
+        return true;
+    }
+
+    @Override
+    public synchronized SortedMap<String, Integer> vaccineStock() {
+        return new TreeMap<>(doses);
+    }
+
+    @Override
+    public synchronized List<Slot> addAvailability(String caregiverUsername, SortedSet<Date> dates, long slots)
+            throws SQLException {
+        requireAccount(AccountType.CAREGIVER, caregiverUsername);
+        List<Slot> uploaded = new ArrayList<>();
+        for (Date d : dates) {
+            LocalDate day = d.toLocalDate();
+            long added = slots & Slot.WHOLE_DAY & ~free(day, caregiverUsername) & ~booked(caregiverUsername, day);
+            setFree(day, caregiverUsername, free(day, caregiverUsername) | added);
+            for (long rest = added; rest != 0; rest &= rest - 1) {
+                uploaded.add(new Slot(d, Long.numberOfTrailingZeros(rest), caregiverUsername));
+            }
+        }
+        return uploaded;
+    }
+
+    @Override
+    public synchronized List<Slot> freeSlots(Date date) {
+        List<Slot> slots = new ArrayList<>();
+        for (Map.Entry<LocalDate, TreeMap<String, Long>> entry : freeByDate.entrySet()) {
+            if (date == null || entry.getKey().equals(date.toLocalDate())) {
+                Date day = Date.valueOf(entry.getKey());
+                for (Map.Entry<String, Long> caregiver : entry.getValue().entrySet()) {
+                    for (long rest = caregiver.getValue(); rest != 0; rest &= rest - 1) {
+                        slots.add(new Slot(day, Long.numberOfTrailingZeros(rest), caregiver.getKey()));
+                    }
+                }
+            }
+        }
+        return slots;
+    }
+
+    @Override
+    public synchronized Reservation reserve(String patientUsername, Date date, int slot, String vaccineName,
+                                            String preferredCaregiver) throws SQLException {
+        if (slot >= Slot.PER_DAY) {
+            throw new IllegalArgumentException("Invalid slot " + slot);
+        }
+        Integer current = doses.get(vaccineName);
+        if (current == null || current < 1) {
+            return Reservation.failed(Reservation.Status.NO_DOSES);
+        }
+        LocalDate day = date.toLocalDate();
+        TreeMap<String, Long> free = freeByDate.getOrDefault(day, new TreeMap<>());
+        long wanted = slot < 0 ? Slot.WHOLE_DAY : 1L << slot;
+        String caregiver = null;
+        if (preferredCaregiver != null && (free.getOrDefault(preferredCaregiver, 0L) & wanted) != 0) {
+            caregiver = preferredCaregiver;
+        } else {
+            // the earliest wanted slot, ties going to the first caregiver by username
+            int earliest = Slot.PER_DAY;
+            for (Map.Entry<String, Long> entry : free.entrySet()) {
+                int first = Long.numberOfTrailingZeros(entry.getValue() & wanted);
+                if (first < earliest) {
+                    earliest = first;
+                    caregiver = entry.getKey();
+                }
+            }
+        }
+        if (caregiver == null) {
+            return Reservation.failed(Reservation.Status.NO_CAREGIVER);
+        }
+        // the schema only rejects the appointment row, after the dose and slot were found
+        requireAccount(AccountType.PATIENT, patientUsername);
+        int booked = Long.numberOfTrailingZeros(free.get(caregiver) & wanted);
+        setFree(day, caregiver, free.get(caregiver) & ~(1L << booked));
+        setBooked(caregiver, day, booked(caregiver, day) | 1L << booked);
+        doses.put(vaccineName, current - 1);
+        int appointmentId = nextAppointmentId++;
+        appointments.put(appointmentId, new Appointment.AppointmentBuilder(appointmentId, date, patientUsername,
+                caregiver, vaccineName).slot(booked).build());
+        return Reservation.reserved(appointmentId, caregiver, booked);
+    }
+
+    @Override
+    public synchronized List<Reservation> reserveBatch(Date date, String vaccineName, List<String> patientUsernames)
+            throws SQLException {
+        LocalDate day = date.toLocalDate();
+        // every free slot, ranked by its caregiver's load plus the free slots before it
+        List<long[]> candidates = new ArrayList<>();
+        List<String> caregivers = new ArrayList<>(freeByDate.getOrDefault(day, new TreeMap<>()).keySet());
+        for (int c = 0; c < caregivers.size(); c++) {
+            int rank = load(caregivers.get(c), day);
+            for (long rest = free(day, caregivers.get(c)); rest != 0; rest &= rest - 1) {
+                candidates.add(new long[] {rank++, Long.numberOfTrailingZeros(rest), c});
+            }
+        }
+        candidates.sort(Comparator.<long[]>comparingLong(candidate -> candidate[0])
+                .thenComparingLong(candidate -> candidate[1]).thenComparingLong(candidate -> candidate[2]));
+        int stock = doses.getOrDefault(vaccineName, 0);
+        // the batch is one transaction, so an unknown patient who would be booked fails all of it
+        for (int i = 0; i < Math.min(patientUsernames.size(), Math.min(stock, candidates.size())); i++) {
+            requireAccount(AccountType.PATIENT, patientUsernames.get(i));
+        }
+        List<Reservation> reservations = new ArrayList<>(patientUsernames.size());
+        for (int i = 0; i < patientUsernames.size(); i++) {
+            if (i >= stock) {
+                reservations.add(Reservation.failed(Reservation.Status.NO_DOSES));
+            } else if (i >= candidates.size()) {
+                reservations.add(Reservation.failed(Reservation.Status.NO_CAREGIVER));
+            } else {
+                long[] candidate = candidates.get(i);
+                reservations.add(reserve(patientUsernames.get(i), date, (int) candidate[1], vaccineName,
+                        caregivers.get((int) candidate[2])));
+            }
+        }
+        return reservations;
+    }
+
+    // appointments the caregiver has within LOAD_WINDOW_DAYS of the day
+    private int load(String caregiver, LocalDate day) {
+        int load = 0;
+        Map<LocalDate, Long> days = bookedByCaregiver.getOrDefault(caregiver, new HashMap<>());
+        for (Map.Entry<LocalDate, Long> booked : days.entrySet()) {
+            if (Math.abs(booked.getKey().toEpochDay() - day.toEpochDay()) <= LOAD_WINDOW_DAYS) {
+                load += Long.bitCount(booked.getValue());
+            }
+        }
+        return load;
+    }
+
+    // the foreign keys of availability and appointment rows
+    private void requireAccount(AccountType type, String username) throws SQLException {
+        if (!accounts.get(type).containsKey(username)) {
+            throw new SQLIntegrityConstraintViolationException("No " + type.name().toLowerCase(Locale.ROOT) +
+                    " account " + username);
+        }
+    }
+
+    private long free(LocalDate day, String caregiver) {
+        return freeByDate.getOrDefault(day, new TreeMap<>()).getOrDefault(caregiver, 0L);
+    }
+
+    private void setFree(LocalDate day, String caregiver, long slots) {
+        if (slots != 0) {
+            freeByDate.computeIfAbsent(day, k -> new TreeMap<>()).put(caregiver, slots);
+        } else if (freeByDate.containsKey(day)) {
+            freeByDate.get(day).remove(caregiver);
+        }
+    }
+
+    private long booked(String caregiver, LocalDate day) {
+        return bookedByCaregiver.getOrDefault(caregiver, new HashMap<>()).getOrDefault(day, 0L);
+    }
+
+    private void setBooked(String caregiver, LocalDate day, long slots) {
+        if (slots != 0) {
+            bookedByCaregiver.computeIfAbsent(caregiver, k -> new HashMap<>()).put(day, slots);
+        } else if (bookedByCaregiver.containsKey(caregiver)) {
+            bookedByCaregiver.get(caregiver).remove(day);
+        }
+    }
+
+    @Override
+    public synchronized Appointment.AppointmentCursor findAppointments(AccountType party, String username,
+                                                                       Date fromDate, int afterId, int limit,
+                                                                       int fetchSize) {
+        // the page is copied so the cursor does not hold the store's lock
+        List<Appointment> page = new ArrayList<>();
+        for (Appointment appointment : appointments.tailMap(afterId, false).values()) {
+            String partyUsername = party == AccountType.CAREGIVER
+                    ? appointment.getCaregiverUsername() : appointment.getPatientUsername();
+            if (!partyUsername.equals(username) || (fromDate != null && appointment.getTime().before(fromDate))) {
+                continue;
+            }
+            page.add(appointment);
+            if (limit > 0 && page.size() == limit) {
+                break;
+            }
+        }
+        Iterator<Appointment> iterator = page.iterator();
+        return new Appointment.AppointmentCursor() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Appointment next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public synchronized Appointment cancelAppointment(int appointmentId, String username) {
+        Appointment appointment = appointments.get(appointmentId);
+        if (appointment == null || !(appointment.getPatientUsername().equals(username)
+                || appointment.getCaregiverUsername().equals(username))) {
+            return null;
+        }
+        release(appointment);
+        LocalDate day = appointment.getTime().toLocalDate();
+        setFree(day, appointment.getCaregiverUsername(),
+                free(day, appointment.getCaregiverUsername()) | 1L << appointment.getSlot());
+        return appointment;
+    }
+
+    @Override
+    public synchronized List<Appointment> cancelCaregiverDay(String caregiverUsername, Date date) {
+        LocalDate day = date.toLocalDate();
+        List<Appointment> cancelled = new ArrayList<>();
+        if (booked(caregiverUsername, day) != 0) {
+            for (Appointment appointment : appointments.values()) {
+                if (appointment.getCaregiverUsername().equals(caregiverUsername)
+                        && appointment.getTime().toLocalDate().equals(day)) {
+                    cancelled.add(appointment);
+                }
+            }
+        }
+        for (Appointment appointment : cancelled) {
+            release(appointment);
+        }
+        setFree(day, caregiverUsername, 0);
+        return cancelled;
+    }
+
+    @Override
+    public synchronized Set<String> findRecordedDeltas(Collection<String> deltaIds) {
+        Set<String> recorded = new HashSet<>();
+        for (String deltaId : deltaIds) {
+            if (recordedDeltas.contains(deltaId)) {
+                recorded.add(deltaId);
+            }
+        }
+        return recorded;
+    }
+
+    @Override
+    public synchronized boolean recordDelta(String deltaId) {
+        return recordedDeltas.add(deltaId);
+    }
+
+    @Override
+    public synchronized Reservation reserveForDelta(String deltaId, String patientUsername, Date date, int slot,
+                                                    String vaccineName, String preferredCaregiver)
+            throws SQLException {
+        if (!recordedDeltas.add(deltaId)) {
+            throw new SQLIntegrityConstraintViolationException("Delta " + deltaId + " already applied");
+        }
+        Reservation reservation;
+        try {
+            reservation = reserve(patientUsername, date, slot, vaccineName, preferredCaregiver);
+        } catch (SQLException e) {
+            // the database rolls back the delta's record with the failed reservation
+            recordedDeltas.remove(deltaId);
+            throw e;
+        }
+        if (reservation.isReserved()) {
+            deltaAppointments.put(deltaId, reservation.getAppointmentId());
+        }
+        return reservation;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> findDeltaAppointments(Collection<String> deltaIds) {
+        Map<String, Integer> booked = new HashMap<>();
+        for (String deltaId : deltaIds) {
+            Integer appointmentId = deltaAppointments.get(deltaId);
+            if (appointmentId != null) {
+                booked.put(deltaId, appointmentId);
+            }
+        }
+        return booked;
+    }
+
+    @Override
+    public synchronized Set<Integer> findExistingAppointments(Collection<Integer> appointmentIds) {
+        Set<Integer> existing = new HashSet<>();
+        for (int appointmentId : appointmentIds) {
+            if (appointments.containsKey(appointmentId)) {
+                existing.add(appointmentId);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public synchronized boolean changeDosesForDelta(String deltaId, String vaccineName, int change)
+            throws SQLException {
+        if (change == 0) {
+            throw new IllegalArgumentException("Argument cannot be zero!");
+        }
+        if (!recordedDeltas.add(deltaId)) {
+            throw new SQLIntegrityConstraintViolationException("Delta " + deltaId + " already applied");
+        }
+        if (change > 0) {
+            doses.merge(vaccineName, change, Integer::sum);
+            return true;
+        }
+        return takeDoses(vaccineName, -change);
+    }
+
+    // replaces the dose stock and free slots with another store's, e.g. the central database's after
+    // an offline clinic has synced; local appointments are kept except the given cancelled ones
+    synchronized void replaceInventory(Map<String, Integer> stock, Collection<Slot> freeSlots,
+                                       Collection<Integer> cancelledAppointments) {
+        for (int appointmentId : cancelledAppointments) {
+            Appointment appointment = appointments.remove(appointmentId);
+            if (appointment != null) {
+                LocalDate day = appointment.getTime().toLocalDate();
+                setBooked(appointment.getCaregiverUsername(), day,
+                        booked(appointment.getCaregiverUsername(), day) & ~(1L << appointment.getSlot()));
+            }
+        }
+        doses.clear();
+        doses.putAll(stock);
+        freeByDate.clear();
+        for (Slot slot : freeSlots) {
+            LocalDate day = slot.getTime().toLocalDate();
+            long bit = (1L << slot.getSlot()) & ~booked(slot.getCaregiverUsername(), day);
+            setFree(day, slot.getCaregiverUsername(), free(day, slot.getCaregiverUsername()) | bit);
+        }
+    }
+
+    // moves an appointment to another caregiver in the same slot, e.g. when the central database
+    // booked a different caregiver for it
+    synchronized void reassign(int appointmentId, String caregiverUsername) {
+        Appointment appointment = appointments.get(appointmentId);
+        if (appointment == null || appointment.getCaregiverUsername().equals(caregiverUsername)) {
+            return;
+        }
+        LocalDate day = appointment.getTime().toLocalDate();
+        long bit = 1L << appointment.getSlot();
+        String previous = appointment.getCaregiverUsername();
+        setBooked(previous, day, booked(previous, day) & ~bit);
+        setBooked(caregiverUsername, day, booked(caregiverUsername, day) | bit);
+        setFree(day, caregiverUsername, free(day, caregiverUsername) & ~bit);
+        appointments.put(appointmentId, new Appointment.AppointmentBuilder(appointmentId, appointment.getTime(),
+                appointment.getPatientUsername(), caregiverUsername, appointment.getVaccineName())
+                .slot(appointment.getSlot()).build());
+    }
+
+    // removes the appointment and returns its dose; the caller decides what happens to the slot
+    private void release(Appointment appointment) {
+        appointments.remove(appointment.getAppointmentId());
+        LocalDate day = appointment.getTime().toLocalDate();
+        setBooked(appointment.getCaregiverUsername(), day,
+                booked(appointment.getCaregiverUsername(), day) & ~(1L << appointment.getSlot()));
+        doses.merge(appointment.getVaccineName(), 1, Integer::sum);
+    }
+}
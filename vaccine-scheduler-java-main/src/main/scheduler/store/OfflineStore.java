@@ -0,0 +1,472 @@
+package scheduler.store;
+
+import scheduler.metrics.Histogram;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.function.Consumer;
+
+/**
+ * Serves every command from a local MemoryStore and forwards the changes to the central database
+ * when it can be reached, so an edge clinic keeps working while its uplink is down.
+ *
+ * Every successful local write queues a Delta. A background thread sends the queue to the central
+ * database in batches (DeltaSync, which also resolves conflicts) and, once the queue is empty,
+ * replaces the local dose stock and free slots with the central ones, so the clinic sees what
+ * other clinics booked in the meantime, and drops its synced appointments that were cancelled
+ * centrally. Accounts are looked up centrally on first use and kept.
+ *
+ * While offline the clinic only knows the accounts, stock and slots it had at the last sync, and
+ * only its own appointments; show_appointments and cancel do not see appointments booked
+ * elsewhere. Queued deltas live in memory like the local store, so they are lost if the process
+ * exits before it could sync.
+ */
+public class OfflineStore implements SchedulerStore, AutoCloseable {
+
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    private static final Histogram SYNC_TIME = Metrics.histogram("scheduler_sync_seconds");
+
+    private final MemoryStore local;
+    private final SchedulerStore central;
+    private final DeltaSync sync;
+    private final int batchSize;
+    private final long intervalMillis;
+    // guarded by local, so that deltas are queued in the order they were applied locally
+    private final Deque<Delta> outbox = new ArrayDeque<>();
+    // local appointment id -> the delta that reserved it, named by its cancellation; upcoming only,
+    // guarded by local
+    private final Map<Integer, Delta> reservationDeltas = new HashMap<>();
+    private long localWrites = 0;
+
+    private final Object syncLock = new Object();
+    private volatile boolean online = true;
+    private volatile Thread syncer;
+
+    public OfflineStore(MemoryStore local, SchedulerStore central, int batchSize, long intervalMillis,
+                        Consumer<String> conflictLog) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive!");
+        }
+        this.local = local;
+        this.central = central;
+        this.sync = new DeltaSync(local, central, conflictLog);
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+        Metrics.gauge("scheduler_sync_pending_deltas", this::pendingDeltas);
+        Metrics.gauge("scheduler_sync_online", () -> online ? 1 : 0);
+    }
+
+    /**
+     * Takes over the central state if it can be reached and starts syncing every intervalMillis.
+     */
+    public void start() {
+        sync(false);
+        Thread thread = new Thread(this::runSyncer, "offline-sync");
+        thread.setDaemon(true);
+        syncer = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the background sync after one last attempt to send the queue.
+     */
+    @Override
+    public void close() {
+        Thread thread = syncer;
+        syncer = null;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sync(false);
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    public int pendingDeltas() {
+        synchronized (local) {
+            return outbox.size();
+        }
+    }
+
+    /**
+     * Sends the queued deltas in batches and, if all of them got through, takes over the central
+     * stock and free slots. Returns whether the central database could be reached.
+     */
+    public boolean sync() {
+        return sync(true);
+    }
+
+    private boolean sync(boolean notify) {
+        synchronized (syncLock) {
+            long start = System.nanoTime();
+            try {
+                List<Delta> batch = nextBatch();
+                while (!batch.isEmpty()) {
+                    sync.push(batch, this::acknowledge);
+                    batch = nextBatch();
+                }
+                refresh(notify);
+                online = true;
+            } catch (SQLException e) {
+                online = false;
+            } finally {
+                SYNC_TIME.recordSince(start);
+            }
+            return online;
+        }
+    }
+
+    private List<Delta> nextBatch() {
+        synchronized (local) {
+            List<Delta> batch = new ArrayList<>(Math.min(batchSize, outbox.size()));
+            for (Delta delta : outbox) {
+                if (batch.size() == batchSize) {
+                    break;
+                }
+                batch.add(delta);
+            }
+            return batch;
+        }
+    }
+
+    private void acknowledge(Delta delta) {
+        synchronized (local) {
+            // only the sync thread removes deltas, so the acknowledged one is always the oldest
+            outbox.removeFirst();
+        }
+    }
+
+    private void refresh(boolean notify) throws SQLException {
+        long writes;
+        synchronized (local) {
+            if (!outbox.isEmpty()) {
+                return;
+            }
+            writes = localWrites;
+        }
+        Set<Integer> cancelled = sync.findCancelledCentrally();
+        SortedMap<String, Integer> stock = central.vaccineStock();
+        List<Slot> freeSlots = central.freeSlots(null);
+        synchronized (local) {
+            // a command changed the local store while we were reading; its delta goes first
+            if (localWrites != writes) {
+                return;
+            }
+            local.replaceInventory(stock, freeSlots, cancelled);
+            reservationDeltas.keySet().removeAll(cancelled);
+            LocalDate today = LocalDate.now();
+            reservationDeltas.values().removeIf(reserved -> reserved.getDate().toLocalDate().isBefore(today));
+        }
+        sync.forget(cancelled);
+        if (notify) {
+            Stores.notifyChanged();
+        }
+    }
+
+    private void runSyncer() {
+        long wait = intervalMillis;
+        while (syncer == Thread.currentThread()) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                return;
+            }
+            wait = sync() ? intervalMillis : Math.min(MAX_BACKOFF_MILLIS, wait * 2);
+        }
+    }
+
+    // must be called holding the local store's lock, right after the write it describes
+    private void enqueue(Delta delta) {
+        outbox.addLast(delta);
+        localWrites++;
+    }
+
+    private void enqueueReserved(Delta reserved) {
+        reservationDeltas.put(reserved.getAppointmentId(), reserved);
+        enqueue(reserved);
+    }
+
+    // Accounts
+
+    @Override
+    public void insertAccount(AccountType type, Credentials credentials) throws SQLException {
+        if (findCredentials(type, credentials.getUsername()) != null) {
+            throw new SQLIntegrityConstraintViolationException("Username " + credentials.getUsername() +
+                    " already taken");
+        }
+        synchronized (local) {
+            local.insertAccount(type, credentials);
+            enqueue(Delta.accountCreated(type, credentials));
+        }
+    }
+
+    @Override
+    public Set<String> insertAccounts(AccountType type, List<Credentials> accounts) throws SQLException {
+        List<String> usernames = new ArrayList<>(accounts.size());
+        for (Credentials account : accounts) {
+            usernames.add(account.getUsername());
+        }
+        Set<String> taken = findExistingAccounts(type, usernames);
+        List<Credentials> fresh = new ArrayList<>(accounts.size());
+        for (Credentials account : accounts) {
+            if (!taken.contains(account.getUsername())) {
+                fresh.add(account);
+            }
+        }
+        synchronized (local) {
+            Set<String> rejected = local.insertAccounts(type, fresh);
+            for (Credentials account : fresh) {
+                if (!rejected.contains(account.getUsername())) {
+                    enqueue(Delta.accountCreated(type, account));
+                }
+            }
+            taken.addAll(rejected);
+        }
+        return taken;
+    }
+
+    @Override
+    public boolean accountExists(AccountType type, String username) throws SQLException {
+        return findCredentials(type, username) != null;
+    }
+
+    @Override
+    public Set<String> findExistingAccounts(AccountType type, Collection<String> usernames) throws SQLException {
+        Set<String> existing = new HashSet<>(local.findExistingAccounts(type, usernames));
+        if (online && existing.size() < usernames.size()) {
+            try {
+                existing.addAll(central.findExistingAccounts(type, usernames));
+            } catch (SQLException e) {
+                online = false;
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public Credentials findCredentials(AccountType type, String username) throws SQLException {
+        Credentials credentials = local.findCredentials(type, username);
+        if (credentials != null || !online) {
+            return credentials;
+        }
+        try {
+            credentials = central.findCredentials(type, username);
+        } catch (SQLException e) {
+            online = false;
+            return null;
+        }
+        if (credentials != null) {
+            // keep it, so the user can still log in here once the uplink is down
+            try {
+                local.insertAccount(type, credentials);
+            } catch (SQLIntegrityConstraintViolationException e) {
+                return local.findCredentials(type, username);
+            }
+        }
+        return credentials;
+    }
+
+    @Override
+    public void updateCredentials(AccountType type, Credentials credentials) throws SQLException {
+        synchronized (local) {
+            local.updateCredentials(type, credentials);
+            enqueue(Delta.credentialsUpdated(type, credentials));
+        }
+    }
+
+    // Vaccines
+
+    @Override
+    public void insertVaccine(String vaccineName, int doses) throws SQLException {
+        synchronized (local) {
+            local.insertVaccine(vaccineName, doses);
+            enqueue(Delta.dosesAdded(vaccineName, doses));
+        }
+    }
+
+    @Override
+    public int availableDoses(String vaccineName) throws SQLException {
+        return local.availableDoses(vaccineName);
+    }
+
+    @Override
+    public boolean addDoses(String vaccineName, int num) throws SQLException {
+        synchronized (local) {
+            boolean added = local.addDoses(vaccineName, num);
+            if (added) {
+                enqueue(Delta.dosesAdded(vaccineName, num));
+            }
+            return added;
+        }
+    }
+
+    @Override
+    public SortedMap<String, Integer> receiveDoses(Map<String, Integer> shipment) throws SQLException {
+        synchronized (local) {
+            SortedMap<String, Integer> stock = local.receiveDoses(shipment);
+            for (Map.Entry<String, Integer> entry : shipment.entrySet()) {
+                enqueue(Delta.dosesAdded(entry.getKey(), entry.getValue()));
+            }
+            return stock;
+        }
+    }
+
+    @Override
+    public boolean takeDoses(String vaccineName, int num) throws SQLException {
+        synchronized (local) {
+            boolean taken = local.takeDoses(vaccineName, num);
+            if (taken) {
+                enqueue(Delta.dosesTaken(vaccineName, num));
+            }
+            return taken;
+        }
+    }
+
+    @Override
+    public SortedMap<String, Integer> vaccineStock() throws SQLException {
+        return local.vaccineStock();
+    }
+
+    // Availability
+
+    @Override
+    public List<Slot> addAvailability(String caregiverUsername, SortedSet<Date> dates, long slots)
+            throws SQLException {
+        synchronized (local) {
+            List<Slot> added = local.addAvailability(caregiverUsername, dates, slots);
+            // one delta per date, with the slots added on it; added is ordered by date
+            Map<Date, Long> addedByDate = new LinkedHashMap<>();
+            for (Slot slot : added) {
+                addedByDate.merge(slot.getTime(), 1L << slot.getSlot(), (a, b) -> a | b);
+            }
+            for (Map.Entry<Date, Long> entry : addedByDate.entrySet()) {
+                enqueue(Delta.availabilityAdded(caregiverUsername, entry.getKey(), entry.getValue()));
+            }
+            return added;
+        }
+    }
+
+    @Override
+    public List<Slot> freeSlots(Date date) throws SQLException {
+        return local.freeSlots(date);
+    }
+
+    // Appointments
+
+    @Override
+    public Reservation reserve(String patientUsername, Date date, int slot, String vaccineName,
+                               String preferredCaregiver) throws SQLException {
+        synchronized (local) {
+            Reservation reservation = local.reserve(patientUsername, date, slot, vaccineName, preferredCaregiver);
+            if (reservation.isReserved()) {
+                enqueueReserved(Delta.reserved(reservation.getAppointmentId(), patientUsername, date,
+                        reservation.getSlot(), vaccineName, reservation.getCaregiverUsername()));
+            }
+            return reservation;
+        }
+    }
+
+    @Override
+    public List<Reservation> reserveBatch(Date date, String vaccineName, List<String> patientUsernames)
+            throws SQLException {
+        synchronized (local) {
+            List<Reservation> reservations = local.reserveBatch(date, vaccineName, patientUsernames);
+            for (int i = 0; i < reservations.size(); i++) {
+                Reservation reservation = reservations.get(i);
+                if (reservation.isReserved()) {
+                    enqueueReserved(Delta.reserved(reservation.getAppointmentId(), patientUsernames.get(i), date,
+                            reservation.getSlot(), vaccineName, reservation.getCaregiverUsername()));
+                }
+            }
+            return reservations;
+        }
+    }
+
+    @Override
+    public Appointment.AppointmentCursor findAppointments(AccountType party, String username, Date fromDate,
+                                                          int afterId, int limit, int fetchSize) throws SQLException {
+        return local.findAppointments(party, username, fromDate, afterId, limit, fetchSize);
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String username) throws SQLException {
+        synchronized (local) {
+            Appointment cancelled = local.cancelAppointment(appointmentId, username);
+            if (cancelled != null) {
+                Delta reserved = reservationDeltas.remove(appointmentId);
+                enqueue(Delta.cancelled(appointmentId, reserved == null ? null : reserved.getId(), username));
+            }
+            return cancelled;
+        }
+    }
+
+    @Override
+    public List<Appointment> cancelCaregiverDay(String caregiverUsername, Date date) throws SQLException {
+        synchronized (local) {
+            List<Appointment> cancelled = local.cancelCaregiverDay(caregiverUsername, date);
+            for (Appointment appointment : cancelled) {
+                reservationDeltas.remove(appointment.getAppointmentId());
+            }
+            // sent even if nothing was cancelled here: the slots are withdrawn centrally as well
+            enqueue(Delta.caregiverDayCancelled(caregiverUsername, date));
+            return cancelled;
+        }
+    }
+
+    // Sync
+
+    @Override
+    public Set<String> findRecordedDeltas(Collection<String> deltaIds) throws SQLException {
+        return local.findRecordedDeltas(deltaIds);
+    }
+
+    @Override
+    public boolean recordDelta(String deltaId) throws SQLException {
+        return local.recordDelta(deltaId);
+    }
+
+    @Override
+    public Map<String, Integer> findDeltaAppointments(Collection<String> deltaIds) throws SQLException {
+        return local.findDeltaAppointments(deltaIds);
+    }
+
+    @Override
+    public Set<Integer> findExistingAppointments(Collection<Integer> appointmentIds) throws SQLException {
+        return local.findExistingAppointments(appointmentIds);
+    }
+
+    @Override
+    public Reservation reserveForDelta(String deltaId, String patientUsername, Date date, int slot,
+                                       String vaccineName, String preferredCaregiver) throws SQLException {
+        return local.reserveForDelta(deltaId, patientUsername, date, slot, vaccineName, preferredCaregiver);
+    }
+
+    @Override
+    public boolean changeDosesForDelta(String deltaId, String vaccineName, int change) throws SQLException {
+        return local.changeDosesForDelta(deltaId, vaccineName, change);
+    }
+}
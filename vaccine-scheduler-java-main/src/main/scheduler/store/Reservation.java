@@ -0,0 +1,49 @@
+package scheduler.store;
+
+/**
+ * The outcome of a reservation attempt.
+ */
+public class Reservation {
+    public enum Status { RESERVED, NO_DOSES, NO_CAREGIVER }
+
+    private final Status status;
+    private final int appointmentId;
+    private final String caregiverUsername;
+    private final int slot;
+
+    private Reservation(Status status, int appointmentId, String caregiverUsername, int slot) {
+        this.status = status;
+        this.appointmentId = appointmentId;
+        this.caregiverUsername = caregiverUsername;
+        this.slot = slot;
+    }
+
+    public static Reservation reserved(int appointmentId, String caregiverUsername, int slot) {
+        return new Reservation(Status.RESERVED, appointmentId, caregiverUsername, slot);
+    }
+
+    public static Reservation failed(Status status) {
+        return new Reservation(status, -1, null, -1);
+    }
+
+    // Getters
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isReserved() {
+        return status == Status.RESERVED;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+}
@@ -0,0 +1,181 @@
+package scheduler.store;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Everything the scheduler reads from or writes to its database.
+ *
+ * The model classes, services and commands only talk to this interface, so the same command suite
+ * runs against SQL Server (SqlServerStore) or the embedded in-memory engine (MemoryStore). Use
+ * Stores.get() to obtain the configured instance.
+ *
+ * Implementations report failures as SQLException, whatever they are backed by, so callers handle
+ * errors the same way for every engine.
+ */
+public interface SchedulerStore {
+
+    // Accounts
+
+    /**
+     * Creates an account. Throws SQLIntegrityConstraintViolationException if the username is taken.
+     */
+    void insertAccount(AccountType type, Credentials credentials) throws SQLException;
+
+    /**
+     * Creates many accounts of one type at once. Accounts whose username turns out to be taken are
+     * skipped and their usernames returned; all others are created.
+     */
+    Set<String> insertAccounts(AccountType type, List<Credentials> accounts) throws SQLException;
+
+    boolean accountExists(AccountType type, String username) throws SQLException;
+
+    /**
+     * Returns the subset of usernames that already have an account of the given type.
+     */
+    Set<String> findExistingAccounts(AccountType type, Collection<String> usernames) throws SQLException;
+
+    /**
+     * Returns the stored salt and hash of an account, or null if there is no such account.
+     */
+    Credentials findCredentials(AccountType type, String username) throws SQLException;
+
+    void updateCredentials(AccountType type, Credentials credentials) throws SQLException;
+
+    // Vaccines
+
+    void insertVaccine(String vaccineName, int doses) throws SQLException;
+
+    /**
+     * Returns the available doses of a vaccine, or -1 if the vaccine does not exist.
+     */
+    int availableDoses(String vaccineName) throws SQLException;
+
+    /**
+     * Adds doses to an existing vaccine. Returns false if the vaccine does not exist.
+     */
+    boolean addDoses(String vaccineName, int num) throws SQLException;
+
+    /**
+     * Receives a shipment: atomically adds the given number of doses to each vaccine, creating
+     * vaccines that do not exist yet. Returns the available doses of each shipped vaccine
+     * afterwards, ordered by name.
+     */
+    SortedMap<String, Integer> receiveDoses(Map<String, Integer> shipment) throws SQLException;
+
+    /**
+     * Takes doses if enough are available. Returns false without changing anything otherwise.
+     */
+    boolean takeDoses(String vaccineName, int num) throws SQLException;
+
+    /**
+     * Returns the available doses of every vaccine, ordered by name.
+     */
+    SortedMap<String, Integer> vaccineStock() throws SQLException;
+
+    // Availability
+
+    /**
+     * Marks the caregiver free in the given slots (a bitmap, see Slot) of each of the dates,
+     * skipping slots in which the caregiver is already free or booked. Returns the slots that were
+     * added, by date and then slot.
+     */
+    List<Slot> addAvailability(String caregiverUsername, SortedSet<Date> dates, long slots) throws SQLException;
+
+    /**
+     * Returns the free slots on a date, or on all dates if date is null.
+     */
+    List<Slot> freeSlots(Date date) throws SQLException;
+
+    // Appointments
+
+    /**
+     * Atomically takes one dose of the vaccine and books a free caregiver slot on the date for the
+     * patient: the given slot, or the earliest free one if slot is negative. preferredCaregiver is
+     * booked if it is not null and still free then, otherwise the first free caregiver by username.
+     */
+    Reservation reserve(String patientUsername, Date date, int slot, String vaccineName, String preferredCaregiver)
+            throws SQLException;
+
+    /**
+     * Reserves a dose of the vaccine and a slot on the date for each patient, all in one
+     * transaction. Free slots are handed out least loaded caregiver first rather than earliest
+     * first: a caregiver's load is their appointments within a week of the date, plus the slots
+     * already handed to them in this batch, with ties going to the earlier slot and then by
+     * username. Returns one Reservation per patient, in order; once the doses or free slots run
+     * out, the remaining patients get NO_DOSES or NO_CAREGIVER.
+     */
+    List<Reservation> reserveBatch(Date date, String vaccineName, List<String> patientUsernames)
+            throws SQLException;
+
+    /**
+     * Returns the appointments of one patient or caregiver with an id above afterId (and on or
+     * after fromDate if it is not null), ordered by id. A limit of 0 means no limit.
+     */
+    Appointment.AppointmentCursor findAppointments(AccountType party, String username, Date fromDate,
+                                                   int afterId, int limit, int fetchSize) throws SQLException;
+
+    /**
+     * Atomically deletes an appointment the user is a party to, gives the caregiver's slot back to
+     * the free slots and returns the dose to the vaccine's stock. Returns the cancelled appointment,
+     * or null if there is no such appointment.
+     */
+    Appointment cancelAppointment(int appointmentId, String username) throws SQLException;
+
+    /**
+     * Atomically cancels all of a caregiver's appointments on a date, returns their doses and
+     * withdraws the caregiver's free slots on that date, e.g. when the caregiver calls in sick.
+     * Returns the cancelled appointments ordered by id.
+     */
+    List<Appointment> cancelCaregiverDay(String caregiverUsername, Date date) throws SQLException;
+
+    // Sync
+
+    /**
+     * Returns the subset of offline clinics' delta ids that have already been recorded as applied.
+     */
+    Set<String> findRecordedDeltas(Collection<String> deltaIds) throws SQLException;
+
+    /**
+     * Records that an offline clinic's delta has been applied, so it is skipped if it is sent again.
+     * Returns false if it was already recorded.
+     */
+    boolean recordDelta(String deltaId) throws SQLException;
+
+    /**
+     * Returns the appointment that each of the given reservation deltas booked, by delta id.
+     * Deltas that were not applied, or that booked nothing, are left out.
+     */
+    Map<String, Integer> findDeltaAppointments(Collection<String> deltaIds) throws SQLException;
+
+    /**
+     * Returns the subset of appointment ids that still exist, i.e. have not been cancelled.
+     */
+    Set<Integer> findExistingAppointments(Collection<Integer> appointmentIds) throws SQLException;
+
+    /**
+     * reserve() for an offline clinic's delta, recording the delta (and the appointment it booked,
+     * see findDeltaAppointments) in the same transaction whether or not a slot could be reserved,
+     * so a delta sent twice books at most once. Throws
+     * SQLIntegrityConstraintViolationException, changing nothing, if the delta was already recorded.
+     */
+    Reservation reserveForDelta(String deltaId, String patientUsername, Date date, int slot, String vaccineName,
+                                String preferredCaregiver) throws SQLException;
+
+    /**
+     * Adds doses to (creating the vaccine if needed) or, for a negative change, takes doses from a
+     * vaccine for an offline clinic's delta, recording the delta in the same transaction. Returns
+     * false if there were not enough doses to take; the delta is recorded all the same. Throws
+     * SQLIntegrityConstraintViolationException, changing nothing, if the delta was already recorded.
+     */
+    boolean changeDosesForDelta(String deltaId, String vaccineName, int change) throws SQLException;
+
+}
@@ -0,0 +1,112 @@
+package scheduler.store;
+
+import java.sql.Date;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A free caregiver slot.
+ *
+ * A caregiver's day is split into PER_DAY slots of MINUTES minutes from DAY_START, numbered from 0
+ * in time order. The slots of one caregiver and day fit in a long, one bit per slot, which is how
+ * the in-memory stores and indexes keep them; the database keeps one row per slot.
+ */
+public class Slot {
+    public static final int MINUTES = 15;
+    public static final LocalTime DAY_START = LocalTime.of(9, 0);
+    public static final int PER_DAY = 32;
+    // every slot of a day, as a bitmap
+    public static final long WHOLE_DAY = (1L << PER_DAY) - 1;
+
+    private final Date time;
+    private final int slot;
+    private final String caregiverUsername;
+
+    public Slot(Date time, int slot, String caregiverUsername) {
+        this.time = time;
+        this.slot = slot;
+        this.caregiverUsername = caregiverUsername;
+    }
+
+    // Getters
+    public Date getTime() {
+        return time;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    /**
+     * Returns the time of day a slot starts at.
+     */
+    public static LocalTime startOf(int slot) {
+        return DAY_START.plusMinutes((long) slot * MINUTES);
+    }
+
+    /**
+     * Returns the slot starting at a time of day such as "09:15". Throws IllegalArgumentException
+     * if no slot starts at that time.
+     */
+    public static int parse(String time) {
+        LocalTime start;
+        try {
+            start = LocalTime.parse(time);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time: " + time, e);
+        }
+        long minutes = Duration.between(DAY_START, start).toMinutes();
+        if (minutes < 0 || minutes % MINUTES != 0 || minutes / MINUTES >= PER_DAY
+                || start.getSecond() != 0 || start.getNano() != 0) {
+            throw new IllegalArgumentException("No slot starts at " + time);
+        }
+        return (int) (minutes / MINUTES);
+    }
+
+    /**
+     * Parses a range of times such as "09:00-12:00" into the bitmap of the slots in it; the end is
+     * the end of the last slot and may be the end of the day.
+     */
+    public static long parseRange(String range) {
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            throw new IllegalArgumentException("Invalid time range: " + range);
+        }
+        int from = parse(range.substring(0, dash));
+        String end = range.substring(dash + 1);
+        int to = end.equals(startOf(PER_DAY).toString()) ? PER_DAY : parse(end);
+        if (to <= from) {
+            throw new IllegalArgumentException("Empty time range: " + range);
+        }
+        return range(from, to);
+    }
+
+    /**
+     * Returns the bitmap of slots from (inclusive) to to (exclusive).
+     */
+    public static long range(int from, int to) {
+        return (WHOLE_DAY >>> (PER_DAY - (to - from))) << from;
+    }
+
+    /**
+     * Describes a bitmap of slots as time ranges, e.g. "09:00-10:30, 13:00-13:15".
+     */
+    public static String describe(long slots) {
+        List<String> ranges = new ArrayList<>();
+        long rest = slots;
+        while (rest != 0) {
+            int from = Long.numberOfTrailingZeros(rest);
+            int to = Long.numberOfTrailingZeros(~(rest >>> from)) + from;
+            ranges.add(startOf(from) + "-" + startOf(to));
+            rest &= ~range(from, to);
+        }
+        return String.join(", ", ranges);
+    }
+}
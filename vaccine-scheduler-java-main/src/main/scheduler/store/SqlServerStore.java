@@ -0,0 +1,1015 @@
+package scheduler.store;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The SQL Server (Azure SQL) store, using the tables from resources/create.sql. Connections are
+ * borrowed from the ConnectionManager pool and dose changes go through the DoseLedger.
+ *
+ * Every statement's text is defined once below and never depends on the values bound to it, so
+ * the driver's per-connection statement cache (see ConnectionManager) can reuse the prepared
+ * handle on the server instead of preparing it again for each command.
+ */
+public class SqlServerStore implements SchedulerStore {
+
+    private static final int SQL_SERVER_DUPLICATE_KEY = 2627;
+    private static final int SQL_SERVER_DUPLICATE_INDEX_KEY = 2601;
+    private static final int SQL_SERVER_DEADLOCK = 1205;
+    private static final int MAX_RESERVE_ATTEMPTS = 3;
+
+    // a caregiver's load, for reserveBatch, is their appointments within this many days of the date
+    private static final int LOAD_WINDOW_DAYS = 7;
+
+    // two parameters per patient, within SQL Server's 2100 parameters per statement
+    private static final int MAX_RESERVATIONS_PER_BATCH = 1024;
+
+    private static final int STATUS_RESERVED = 0;
+    private static final int STATUS_NO_DOSES = 1;
+    private static final int STATUS_NO_CAREGIVER = 2;
+
+    private static final String RECORD_DELTA_AND_SAVE =
+            "INSERT INTO SyncedDeltas (DeltaID) VALUES (@delta); SAVE TRANSACTION reserve; ";
+
+    // dose rows are always locked before slot rows to keep deadlocks rare
+    private static final String RESERVE_BATCH = reserveBatch(false);
+
+    // the same for an offline clinic's delta: the delta is recorded in the transaction, and kept
+    // when the reservation itself fails, by rolling back to a savepoint after recording it. The
+    // appointment it booked is stored with it so a retry can find it again
+    private static final String RESERVE_FOR_DELTA_BATCH = reserveBatch(true);
+
+    private static String reserveBatch(boolean forDelta) {
+        String fail = forDelta
+                ? "    ROLLBACK TRANSACTION reserve; COMMIT TRANSACTION; "
+                : "    ROLLBACK TRANSACTION; ";
+        return "SET NOCOUNT ON; " +
+                "SET XACT_ABORT ON; " +
+                "DECLARE @vaccine varchar(255) = ?, @patient varchar(255) = ?, @time date = ?, @at int = ?, " +
+                "@preferred varchar(255) = ?" + (forDelta ? ", @delta char(36) = ?; " : "; ") +
+                "DECLARE @count int = 1, @taken int = 0; " +
+                "DECLARE @slot TABLE (CaregiverUsername varchar(255), Slot tinyint); " +
+                "DECLARE @claimed TABLE (AppointmentID int, CaregiverUsername varchar(255), Slot tinyint); " +
+                "BEGIN TRANSACTION; " +
+                (forDelta ? RECORD_DELTA_AND_SAVE : "") +
+                DoseLedger.TAKE_FRAGMENT +
+                "IF @taken = 0 " +
+                "BEGIN " +
+                fail +
+                "    SELECT " + STATUS_NO_DOSES + ", NULL, NULL, NULL; " +
+                "    RETURN; " +
+                "END; " +
+                "IF @preferred IS NOT NULL " +
+                "BEGIN " +
+                claimSlot("AND Username = @preferred ") +
+                "END; " +
+                "IF NOT EXISTS (SELECT 1 FROM @slot) " +
+                "BEGIN " +
+                claimSlot("") +
+                "END; " +
+                "IF NOT EXISTS (SELECT 1 FROM @slot) " +
+                "BEGIN " +
+                fail +
+                "    SELECT " + STATUS_NO_CAREGIVER + ", NULL, NULL, NULL; " +
+                "    RETURN; " +
+                "END; " +
+                "INSERT INTO Appointments (Time, Slot, PatientUsername, CaregiverUsername, VaccineName) " +
+                "OUTPUT inserted.AppointmentID, inserted.CaregiverUsername, inserted.Slot INTO @claimed " +
+                "SELECT @time, Slot, @patient, CaregiverUsername, @vaccine FROM @slot; " +
+                (forDelta ? "UPDATE SyncedDeltas SET AppointmentID = (SELECT AppointmentID FROM @claimed) " +
+                        "WHERE DeltaID = @delta; " : "") +
+                "COMMIT TRANSACTION; " +
+                "SELECT " + STATUS_RESERVED + ", AppointmentID, CaregiverUsername, Slot FROM @claimed;";
+    }
+
+    // reserves for the patients in @requests in one transaction. Doses are taken first, all that
+    // are left if there are fewer than requests; then as many slots as doses are claimed, ranked
+    // by their caregiver's load plus the caregiver's free slots before them, so a caregiver's
+    // second slot only goes once every equally loaded caregiver has one. Any doses left over for
+    // lack of slots go back to the base row. The first row returned carries the number of doses
+    // taken, the rest the booked requests.
+    private static String reserveManyBatch(int rows) {
+        return "SET NOCOUNT ON; " +
+                "SET XACT_ABORT ON; " +
+                "DECLARE @vaccine varchar(255) = ?, @time date = ?; " +
+                "DECLARE @count int, @taken int = 0, @want int, @doses int = 0, @claimed int; " +
+                "DECLARE @requests TABLE (Seq int PRIMARY KEY, Patient varchar(255)); " +
+                "DECLARE @slot TABLE (Seq int IDENTITY(1, 1), CaregiverUsername varchar(255), Slot tinyint); " +
+                "DECLARE @booked TABLE (AppointmentID int, CaregiverUsername varchar(255), Slot tinyint); " +
+                "DECLARE @candidates TABLE (Username varchar(255), Slot tinyint, Rank int, " +
+                "    PRIMARY KEY (Username, Slot)); " +
+                "INSERT INTO @requests (Seq, Patient) VALUES " + SqlText.repeat("(?, ?)", rows) + "; " +
+                "DELETE FROM @requests WHERE Patient IS NULL; " +
+                "SET @want = (SELECT COUNT(*) FROM @requests); " +
+                "BEGIN TRANSACTION; " +
+                "SET @count = @want; " +
+                DoseLedger.TAKE_FRAGMENT +
+                "IF @taken = 0 " +
+                "BEGIN " +
+                "    SET @count = (SELECT " + DoseLedger.AVAILABLE_EXPRESSION + " FROM Vaccines v " +
+                "        WHERE v.Name = @vaccine); " +
+                "    IF @count > 0 " +
+                "    BEGIN " +
+                DoseLedger.TAKE_FRAGMENT +
+                "    END; " +
+                "END; " +
+                "IF @taken = 1 " +
+                "BEGIN " +
+                "    SET @doses = @count; " +
+                "END; " +
+                "INSERT INTO @candidates (Username, Slot, Rank) " +
+                "SELECT a.Username, a.Slot, l.Load + ROW_NUMBER() OVER (PARTITION BY a.Username ORDER BY a.Slot) " +
+                "FROM Availabilities a " +
+                "CROSS APPLY (SELECT COUNT(*) AS Load FROM Appointments p WHERE p.CaregiverUsername = a.Username " +
+                "    AND p.Time BETWEEN DATEADD(day, -" + LOAD_WINDOW_DAYS + ", @time) " +
+                "    AND DATEADD(day, " + LOAD_WINDOW_DAYS + ", @time)) l " +
+                "WHERE a.Time = @time; " +
+                // only the rows handed out are locked; candidates claimed meanwhile are skipped
+                "INSERT INTO @slot (CaregiverUsername, Slot) " +
+                "SELECT TOP (@doses) a.Username, a.Slot FROM Availabilities a WITH (UPDLOCK, READPAST, ROWLOCK) " +
+                "JOIN @candidates c ON c.Username = a.Username AND c.Slot = a.Slot " +
+                "WHERE a.Time = @time " +
+                "ORDER BY c.Rank, a.Slot, a.Username; " +
+                "DELETE a FROM Availabilities a " +
+                "JOIN @slot s ON a.Username = s.CaregiverUsername AND a.Slot = s.Slot " +
+                "WHERE a.Time = @time; " +
+                "SET @claimed = (SELECT COUNT(*) FROM @slot); " +
+                "IF @claimed < @doses " +
+                "BEGIN " +
+                "    UPDATE Vaccines SET Doses = Doses + (@doses - @claimed) WHERE Name = @vaccine; " +
+                "END; " +
+                "INSERT INTO Appointments (Time, Slot, PatientUsername, CaregiverUsername, VaccineName) " +
+                "OUTPUT inserted.AppointmentID, inserted.CaregiverUsername, inserted.Slot INTO @booked " +
+                "SELECT @time, s.Slot, r.Patient, s.CaregiverUsername, @vaccine FROM @requests r " +
+                "JOIN @slot s ON s.Seq = r.Seq; " +
+                "COMMIT TRANSACTION; " +
+                "SELECT 0, @doses, NULL, NULL " +
+                "UNION ALL " +
+                "SELECT s.Seq, b.AppointmentID, b.CaregiverUsername, b.Slot FROM @slot s " +
+                "JOIN @booked b ON b.CaregiverUsername = s.CaregiverUsername AND b.Slot = s.Slot;";
+    }
+
+    // moves the earliest free slot on @time (slot @at, unless it is negative) matching the extra
+    // predicate out of Availabilities, recording it in @slot
+    private static String claimSlot(String predicate) {
+        return ";WITH free AS (" +
+                "    SELECT TOP (1) Time, Slot, Username FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) " +
+                "    WHERE Time = @time AND (@at < 0 OR Slot = @at) " + predicate +
+                "    ORDER BY Slot, Username) " +
+                "DELETE FROM free OUTPUT deleted.Username, deleted.Slot INTO @slot; ";
+    }
+
+    // a slot is a duplicate if the caregiver is already free or already booked in it
+    private static final String FIND_EXISTING_SLOTS =
+            "SELECT Time, Slot FROM Availabilities WITH (UPDLOCK, HOLDLOCK) " +
+            "WHERE Username = ? AND Time BETWEEN ? AND ? " +
+            "UNION " +
+            "SELECT Time, Slot FROM Appointments " +
+            "WHERE CaregiverUsername = ? AND Time BETWEEN ? AND ?";
+
+    private static final String ADD_AVAILABILITY =
+            "INSERT INTO Availabilities (Time, Slot, Username) VALUES (?, ?, ?)";
+
+    private static final String FREE_SLOTS = "SELECT Time, Slot, Username FROM Availabilities";
+
+    private static final String VACCINE_STOCK =
+            "SELECT v.Name, " + DoseLedger.AVAILABLE_EXPRESSION + " FROM Vaccines v ORDER BY v.Name";
+
+    // the doses of cancelled appointments go back to the base row; stripes only ever drain
+    private static final String CANCEL_APPOINTMENT =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @id int = ?, @user varchar(255) = ?; " +
+            declareCancelled() +
+            "BEGIN TRANSACTION; " +
+            "DELETE FROM Appointments " + outputCancelled() +
+            "WHERE AppointmentID = @id AND (PatientUsername = @user OR CaregiverUsername = @user); " +
+            "INSERT INTO Availabilities (Time, Slot, Username) SELECT Time, Slot, CaregiverUsername FROM @cancelled; " +
+            returnCancelledDoses() +
+            "COMMIT TRANSACTION; " +
+            selectCancelled();
+
+    // a caregiver calling in sick: their appointments that day are cancelled and their free slots
+    // are withdrawn so nobody books them again
+    private static final String CANCEL_CAREGIVER_DAY =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @caregiver varchar(255) = ?, @time date = ?; " +
+            declareCancelled() +
+            "BEGIN TRANSACTION; " +
+            "DELETE FROM Appointments " + outputCancelled() +
+            "WHERE CaregiverUsername = @caregiver AND Time = @time; " +
+            "DELETE FROM Availabilities WHERE Username = @caregiver AND Time = @time; " +
+            returnCancelledDoses() +
+            "COMMIT TRANSACTION; " +
+            selectCancelled();
+
+    private static String declareCancelled() {
+        return "DECLARE @cancelled TABLE (AppointmentID int, Time date, Slot tinyint, PatientUsername varchar(255), " +
+                "CaregiverUsername varchar(255), VaccineName varchar(255)); ";
+    }
+
+    private static String outputCancelled() {
+        return "OUTPUT deleted.AppointmentID, deleted.Time, deleted.Slot, deleted.PatientUsername, " +
+                "deleted.CaregiverUsername, deleted.VaccineName INTO @cancelled ";
+    }
+
+    private static String returnCancelledDoses() {
+        return "UPDATE v SET Doses = v.Doses + c.Returned FROM Vaccines v " +
+                "JOIN (SELECT VaccineName, COUNT(*) AS Returned FROM @cancelled GROUP BY VaccineName) c " +
+                "ON c.VaccineName = v.Name; ";
+    }
+
+    private static String selectCancelled() {
+        return "SELECT AppointmentID, Time, PatientUsername, CaregiverUsername, VaccineName, Slot " +
+                "FROM @cancelled ORDER BY AppointmentID;";
+    }
+
+    private static final Map<AccountType, String> INSERT_ACCOUNT =
+            perAccountType("INSERT INTO %s (Username, Salt, Hash) VALUES (?, ?, ?)");
+
+    private static final Map<AccountType, String> FIND_CREDENTIALS =
+            perAccountType("SELECT Salt, Hash FROM %s WHERE Username = ?");
+
+    private static final Map<AccountType, String> UPDATE_CREDENTIALS =
+            perAccountType("UPDATE %s SET Salt = ?, Hash = ? WHERE Username = ?");
+
+    private static final String INSERT_VACCINE = "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)";
+
+    private static final String RECORD_DELTA = "INSERT INTO SyncedDeltas (DeltaID) VALUES (?)";
+
+    // usernames are looked up in power-of-two lists of at most this many, well below SQL Server's
+    // 2100 parameters per statement
+    private static final int MAX_USERNAMES_PER_LOOKUP = 1024;
+
+    // the page size is a parameter too; an unlimited page binds Integer.MAX_VALUE
+    private static final Map<AccountType, String> FIND_APPOINTMENTS = findAppointmentsSql(false);
+    private static final Map<AccountType, String> FIND_APPOINTMENTS_FROM = findAppointmentsSql(true);
+
+    private static Map<AccountType, String> perAccountType(String format) {
+        Map<AccountType, String> statements = new EnumMap<>(AccountType.class);
+        for (AccountType type : AccountType.values()) {
+            statements.put(type, String.format(format, type.getTable()));
+        }
+        return statements;
+    }
+
+    private static Map<AccountType, String> findAppointmentsSql(boolean fromDate) {
+        Map<AccountType, String> statements = new EnumMap<>(AccountType.class);
+        for (AccountType party : AccountType.values()) {
+            String column = party == AccountType.CAREGIVER ? "CaregiverUsername" : "PatientUsername";
+            statements.put(party, "SELECT TOP (?) " +
+                    "AppointmentID, Time, Slot, PatientUsername, CaregiverUsername, VaccineName " +
+                    "FROM Appointments " +
+                    "WHERE " + column + " = ? AND AppointmentID > ? " +
+                    (fromDate ? "AND Time >= ? " : "") +
+                    "ORDER BY AppointmentID");
+        }
+        return statements;
+    }
+
+    private final DoseLedger doseLedger = new DoseLedger();
+
+    @Override
+    public void insertAccount(AccountType type, Credentials credentials) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(INSERT_ACCOUNT.get(type))) {
+            bind(statement, credentials);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) {
+                throw new SQLIntegrityConstraintViolationException("Username " + credentials.getUsername() +
+                        " already taken", e.getSQLState(), e.getErrorCode(), e);
+            }
+            throw new SQLException("Error creating account: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Set<String> insertAccounts(AccountType type, List<Credentials> accounts) throws SQLException {
+        Set<String> rejected = new HashSet<>();
+        if (accounts.isEmpty()) {
+            return rejected;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = con.prepareStatement(INSERT_ACCOUNT.get(type))) {
+                for (Credentials credentials : accounts) {
+                    bind(statement, credentials);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                con.commit();
+            } catch (BatchUpdateException e) {
+                // a username in the batch is taken (or repeated), which rejects the whole batch; insert
+                // row by row to find out which
+                con.rollback();
+                try (PreparedStatement statement = con.prepareStatement(INSERT_ACCOUNT.get(type))) {
+                    for (Credentials credentials : accounts) {
+                        bind(statement, credentials);
+                        try {
+                            statement.executeUpdate();
+                        } catch (SQLException duplicate) {
+                            if (!isDuplicateKey(duplicate)) {
+                                throw duplicate;
+                            }
+                            rejected.add(credentials.getUsername());
+                        }
+                    }
+                }
+                con.commit();
+            }
+            return rejected;
+        } catch (SQLException e) {
+            // the open transaction is rolled back when the connection goes back to the pool
+            throw new SQLException("Error creating accounts: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean accountExists(AccountType type, String username) throws SQLException {
+        return !findExistingAccounts(type, Collections.singletonList(username)).isEmpty();
+    }
+
+    @Override
+    public Set<String> findExistingAccounts(AccountType type, Collection<String> usernames) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (usernames.isEmpty()) {
+            return existing;
+        }
+        List<String> pending = new ArrayList<>(usernames);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (int from = 0; from < pending.size(); from += MAX_USERNAMES_PER_LOOKUP) {
+                List<String> chunk =
+                        pending.subList(from, Math.min(pending.size(), from + MAX_USERNAMES_PER_LOOKUP));
+                int slots = SqlText.bucket(chunk.size());
+                String query = "SELECT Username FROM " + type.getTable() +
+                        " WHERE Username IN (" + SqlText.repeat("?", slots) + ")";
+                try (PreparedStatement statement = con.prepareStatement(query)) {
+                    // spare slots repeat the last username, which does not change the result
+                    for (int i = 0; i < slots; i++) {
+                        statement.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            existing.add(resultSet.getString(1));
+                        }
+                    }
+                }
+            }
+            return existing;
+        } catch (SQLException e) {
+            throw new SQLException("Error checking usernames: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Credentials findCredentials(AccountType type, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(FIND_CREDENTIALS.get(type))) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                return new Credentials(username, resultSet.getBytes("Salt"), resultSet.getBytes("Hash"));
+            }
+        } catch (SQLException e) {
+            throw new SQLException("Error fetching account: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void updateCredentials(AccountType type, Credentials credentials) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(UPDATE_CREDENTIALS.get(type))) {
+            statement.setBytes(1, credentials.getSalt());
+            statement.setBytes(2, credentials.getHash());
+            statement.setString(3, credentials.getUsername());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException("Error updating account: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void insertVaccine(String vaccineName, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(INSERT_VACCINE)) {
+            statement.setString(1, vaccineName);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException("Error adding vaccine: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int availableDoses(String vaccineName) throws SQLException {
+        return doseLedger.available(vaccineName);
+    }
+
+    @Override
+    public boolean addDoses(String vaccineName, int num) throws SQLException {
+        return doseLedger.add(vaccineName, num);
+    }
+
+    @Override
+    public SortedMap<String, Integer> receiveDoses(Map<String, Integer> shipment) throws SQLException {
+        return doseLedger.receive(shipment);
+    }
+
+    @Override
+    public boolean takeDoses(String vaccineName, int num) throws SQLException {
+        return doseLedger.take(vaccineName, num);
+    }
+
+    @Override
+    public SortedMap<String, Integer> vaccineStock() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(VACCINE_STOCK)) {
+            SortedMap<String, Integer> stock = new TreeMap<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    stock.put(resultSet.getString(1), resultSet.getInt(2));
+                }
+            }
+            return stock;
+        } catch (SQLException e) {
+            throw new SQLException("Error reading vaccine stock: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Slot> addAvailability(String caregiverUsername, SortedSet<Date> dates, long slots)
+            throws SQLException {
+        SortedSet<Date> requested = new TreeSet<>(dates);
+        List<Slot> added = new ArrayList<>();
+        if (requested.isEmpty() || (slots & Slot.WHOLE_DAY) == 0) {
+            return added;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            Map<Date, Long> existing = new HashMap<>();
+            try (PreparedStatement statement = con.prepareStatement(FIND_EXISTING_SLOTS)) {
+                statement.setString(1, caregiverUsername);
+                statement.setDate(2, requested.first());
+                statement.setDate(3, requested.last());
+                statement.setString(4, caregiverUsername);
+                statement.setDate(5, requested.first());
+                statement.setDate(6, requested.last());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        existing.merge(resultSet.getDate(1), 1L << resultSet.getInt(2), (a, b) -> a | b);
+                    }
+                }
+            }
+            for (Date d : requested) {
+                long free = slots & Slot.WHOLE_DAY & ~existing.getOrDefault(d, 0L);
+                for (long rest = free; rest != 0; rest &= rest - 1) {
+                    added.add(new Slot(d, Long.numberOfTrailingZeros(rest), caregiverUsername));
+                }
+            }
+            try (PreparedStatement statement = con.prepareStatement(ADD_AVAILABILITY)) {
+                for (Slot slot : added) {
+                    statement.setDate(1, slot.getTime());
+                    statement.setInt(2, slot.getSlot());
+                    statement.setString(3, caregiverUsername);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            con.commit();
+            return added;
+        } catch (SQLException e) {
+            // the open transaction is rolled back when the connection goes back to the pool
+            throw new SQLException("Error uploading availability: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Slot> freeSlots(Date date) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        String query = date == null ? FREE_SLOTS : FREE_SLOTS + " WHERE Time = ?";
+        try (PreparedStatement statement = con.prepareStatement(query)) {
+            if (date != null) {
+                statement.setDate(1, date);
+            }
+            List<Slot> slots = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    slots.add(new Slot(resultSet.getDate(1), resultSet.getInt(2), resultSet.getString(3)));
+                }
+            }
+            return slots;
+        } catch (SQLException e) {
+            throw new SQLException("Error loading availability: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Books the appointment in a single round trip.
+     *
+     * The whole reservation runs as one T-SQL batch inside one transaction: the dose is taken with
+     * the DoseLedger's conditional decrement (so stock can never go below zero), and the caregiver
+     * slot is moved out of Availabilities with UPDLOCK/READPAST so concurrent reservations for the
+     * same date skip rows another transaction is already claiming instead of queueing behind it.
+     * With one row per caregiver and slot, concurrent requests for different slots never touch the
+     * same row.
+     * If either step finds nothing the transaction is rolled back, so a dose is never consumed
+     * without an appointment and vice versa. Deadlocks are retried with a short randomized backoff.
+     */
+    @Override
+    public Reservation reserve(String patientUsername, Date date, int slot, String vaccineName,
+                               String preferredCaregiver) throws SQLException {
+        return reserve(null, patientUsername, date, slot, vaccineName, preferredCaregiver);
+    }
+
+    // a deadlock rolls back the whole batch, including the delta's record, so retrying is safe
+    private Reservation reserve(String deltaId, String patientUsername, Date date, int slot, String vaccineName,
+                                String preferredCaregiver) throws SQLException {
+        if (slot >= Slot.PER_DAY) {
+            throw new IllegalArgumentException("Invalid slot " + slot);
+        }
+        SQLException lastDeadlock = null;
+        for (int attempt = 1; attempt <= MAX_RESERVE_ATTEMPTS; attempt++) {
+            try {
+                return attemptReserve(deltaId, patientUsername, date, slot, vaccineName, preferredCaregiver);
+            } catch (SQLException e) {
+                if (deltaId != null && isDuplicateKey(e)) {
+                    throw new SQLIntegrityConstraintViolationException("Delta " + deltaId + " already applied",
+                            e.getSQLState(), e.getErrorCode(), e);
+                }
+                if (!isDeadlock(e)) {
+                    throw e;
+                }
+                lastDeadlock = e;
+                backoff(attempt);
+            }
+        }
+        throw new SQLException("Reservation deadlocked " + MAX_RESERVE_ATTEMPTS + " times", lastDeadlock);
+    }
+
+    private Reservation attemptReserve(String deltaId, String patientUsername, Date date, int slot,
+                                       String vaccineName, String preferred) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(
+                deltaId == null ? RESERVE_BATCH : RESERVE_FOR_DELTA_BATCH)) {
+            statement.setString(1, vaccineName);
+            statement.setString(2, patientUsername);
+            statement.setDate(3, date);
+            statement.setInt(4, Math.max(slot, -1));
+            statement.setString(5, preferred);
+            if (deltaId != null) {
+                statement.setString(6, deltaId);
+            }
+            try (ResultSet resultSet = firstResultSet(statement)) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Reservation returned no result");
+                }
+                switch (resultSet.getInt(1)) {
+                    case STATUS_RESERVED:
+                        return Reservation.reserved(resultSet.getInt(2), resultSet.getString(3), resultSet.getInt(4));
+                    case STATUS_NO_DOSES:
+                        return Reservation.failed(Reservation.Status.NO_DOSES);
+                    default:
+                        return Reservation.failed(Reservation.Status.NO_CAREGIVER);
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Lists of more than MAX_RESERVATIONS_PER_BATCH patients are reserved in several
+     * transactions of that many.
+     */
+    @Override
+    public List<Reservation> reserveBatch(Date date, String vaccineName, List<String> patientUsernames)
+            throws SQLException {
+        List<Reservation> reservations = new ArrayList<>(patientUsernames.size());
+        for (int from = 0; from < patientUsernames.size(); from += MAX_RESERVATIONS_PER_BATCH) {
+            List<String> chunk = patientUsernames.subList(from,
+                    Math.min(patientUsernames.size(), from + MAX_RESERVATIONS_PER_BATCH));
+            SQLException lastDeadlock = null;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    reservations.addAll(attemptReserveBatch(date, vaccineName, chunk));
+                    break;
+                } catch (SQLException e) {
+                    if (!isDeadlock(e)) {
+                        throw e;
+                    }
+                    lastDeadlock = e;
+                    if (attempt == MAX_RESERVE_ATTEMPTS) {
+                        throw new SQLException("Reservation batch deadlocked " + MAX_RESERVE_ATTEMPTS + " times",
+                                lastDeadlock);
+                    }
+                    backoff(attempt);
+                }
+            }
+        }
+        return reservations;
+    }
+
+    private List<Reservation> attemptReserveBatch(Date date, String vaccineName, List<String> patientUsernames)
+            throws SQLException {
+        int rows = SqlText.bucket(patientUsernames.size());
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(reserveManyBatch(rows))) {
+            statement.setString(1, vaccineName);
+            statement.setDate(2, date);
+            // spare rows get a null patient, which the batch drops
+            for (int i = 0; i < rows; i++) {
+                statement.setInt(3 + 2 * i, i + 1);
+                statement.setString(4 + 2 * i, i < patientUsernames.size() ? patientUsernames.get(i) : null);
+            }
+            int doses = 0;
+            Map<Integer, Reservation> booked = new HashMap<>();
+            try (ResultSet resultSet = firstResultSet(statement)) {
+                while (resultSet.next()) {
+                    int seq = resultSet.getInt(1);
+                    if (seq == 0) {
+                        doses = resultSet.getInt(2);
+                    } else {
+                        booked.put(seq, Reservation.reserved(resultSet.getInt(2), resultSet.getString(3),
+                                resultSet.getInt(4)));
+                    }
+                }
+            }
+            List<Reservation> reservations = new ArrayList<>(patientUsernames.size());
+            for (int seq = 1; seq <= patientUsernames.size(); seq++) {
+                Reservation reservation = booked.get(seq);
+                if (reservation == null) {
+                    reservation = Reservation.failed(seq > doses
+                            ? Reservation.Status.NO_DOSES : Reservation.Status.NO_CAREGIVER);
+                }
+                reservations.add(reservation);
+            }
+            return reservations;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Appointment.AppointmentCursor findAppointments(AccountType party, String username, Date fromDate,
+                                                          int afterId, int limit, int fetchSize) throws SQLException {
+        String query = (fromDate != null ? FIND_APPOINTMENTS_FROM : FIND_APPOINTMENTS).get(party);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        PreparedStatement statement = null;
+        try {
+            statement = con.prepareStatement(query);
+            statement.setFetchSize(fetchSize);
+            statement.setInt(1, limit > 0 ? limit : Integer.MAX_VALUE);
+            statement.setString(2, username);
+            statement.setInt(3, afterId);
+            if (fromDate != null) {
+                statement.setDate(4, fromDate);
+            }
+            return new ResultSetCursor(cm, statement, statement.executeQuery());
+        } catch (SQLException e) {
+            closeQuietly(statement);
+            cm.closeConnection();
+            throw new SQLException("Error fetching appointments: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(CANCEL_APPOINTMENT)) {
+            statement.setInt(1, appointmentId);
+            statement.setString(2, username);
+            List<Appointment> cancelled = readCancelled(statement);
+            return cancelled.isEmpty() ? null : cancelled.get(0);
+        } catch (SQLException e) {
+            throw new SQLException("Error cancelling appointment: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> cancelCaregiverDay(String caregiverUsername, Date date) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(CANCEL_CAREGIVER_DAY)) {
+            statement.setString(1, caregiverUsername);
+            statement.setDate(2, date);
+            return readCancelled(statement);
+        } catch (SQLException e) {
+            throw new SQLException("Error cancelling appointments: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Reservation reserveForDelta(String deltaId, String patientUsername, Date date, int slot,
+                                       String vaccineName, String preferredCaregiver) throws SQLException {
+        return reserve(deltaId, patientUsername, date, slot, vaccineName, preferredCaregiver);
+    }
+
+    @Override
+    public boolean changeDosesForDelta(String deltaId, String vaccineName, int change) throws SQLException {
+        return doseLedger.changeForDelta(deltaId, vaccineName, change);
+    }
+
+    @Override
+    public Set<String> findRecordedDeltas(Collection<String> deltaIds) throws SQLException {
+        Set<String> recorded = new HashSet<>();
+        if (deltaIds.isEmpty()) {
+            return recorded;
+        }
+        List<String> pending = new ArrayList<>(deltaIds);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (int from = 0; from < pending.size(); from += MAX_USERNAMES_PER_LOOKUP) {
+                List<String> chunk =
+                        pending.subList(from, Math.min(pending.size(), from + MAX_USERNAMES_PER_LOOKUP));
+                int slots = SqlText.bucket(chunk.size());
+                String query = "SELECT DeltaID FROM SyncedDeltas WHERE DeltaID IN (" + SqlText.repeat("?", slots) + ")";
+                try (PreparedStatement statement = con.prepareStatement(query)) {
+                    for (int i = 0; i < slots; i++) {
+                        statement.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            recorded.add(resultSet.getString(1));
+                        }
+                    }
+                }
+            }
+            return recorded;
+        } catch (SQLException e) {
+            throw new SQLException("Error checking synced deltas: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> findDeltaAppointments(Collection<String> deltaIds) throws SQLException {
+        Map<String, Integer> booked = new HashMap<>();
+        if (deltaIds.isEmpty()) {
+            return booked;
+        }
+        List<String> pending = new ArrayList<>(deltaIds);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (int from = 0; from < pending.size(); from += MAX_USERNAMES_PER_LOOKUP) {
+                List<String> chunk =
+                        pending.subList(from, Math.min(pending.size(), from + MAX_USERNAMES_PER_LOOKUP));
+                int slots = SqlText.bucket(chunk.size());
+                String query = "SELECT DeltaID, AppointmentID FROM SyncedDeltas " +
+                        "WHERE AppointmentID IS NOT NULL AND DeltaID IN (" + SqlText.repeat("?", slots) + ")";
+                try (PreparedStatement statement = con.prepareStatement(query)) {
+                    for (int i = 0; i < slots; i++) {
+                        statement.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            booked.put(resultSet.getString(1), resultSet.getInt(2));
+                        }
+                    }
+                }
+            }
+            return booked;
+        } catch (SQLException e) {
+            throw new SQLException("Error finding synced delta appointments: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Set<Integer> findExistingAppointments(Collection<Integer> appointmentIds) throws SQLException {
+        Set<Integer> existing = new HashSet<>();
+        if (appointmentIds.isEmpty()) {
+            return existing;
+        }
+        List<Integer> pending = new ArrayList<>(appointmentIds);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (int from = 0; from < pending.size(); from += MAX_USERNAMES_PER_LOOKUP) {
+                List<Integer> chunk =
+                        pending.subList(from, Math.min(pending.size(), from + MAX_USERNAMES_PER_LOOKUP));
+                int slots = SqlText.bucket(chunk.size());
+                String query = "SELECT AppointmentID FROM Appointments WHERE AppointmentID IN (" +
+                        SqlText.repeat("?", slots) + ")";
+                try (PreparedStatement statement = con.prepareStatement(query)) {
+                    for (int i = 0; i < slots; i++) {
+                        statement.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            existing.add(resultSet.getInt(1));
+                        }
+                    }
+                }
+            }
+            return existing;
+        } catch (SQLException e) {
+            throw new SQLException("Error checking appointments: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean recordDelta(String deltaId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(RECORD_DELTA)) {
+            statement.setString(1, deltaId);
+            statement.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) {
+                return false;
+            }
+            throw new SQLException("Error recording synced delta: " + e.getMessage(), e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static List<Appointment> readCancelled(PreparedStatement statement) throws SQLException {
+        List<Appointment> cancelled = new ArrayList<>();
+        try (ResultSet resultSet = firstResultSet(statement)) {
+            while (resultSet.next()) {
+                cancelled.add(new Appointment.AppointmentBuilder(resultSet.getInt(1), resultSet.getDate(2),
+                        resultSet.getString(3), resultSet.getString(4), resultSet.getString(5))
+                        .slot(resultSet.getInt(6)).build());
+            }
+        }
+        return cancelled;
+    }
+
+    // runs a batch and skips any update counts ahead of its first result set
+    private static ResultSet firstResultSet(PreparedStatement statement) throws SQLException {
+        boolean isResultSet = statement.execute();
+        while (!isResultSet && statement.getUpdateCount() != -1) {
+            isResultSet = statement.getMoreResults();
+        }
+        if (!isResultSet) {
+            throw new SQLException("Batch returned no result");
+        }
+        return statement.getResultSet();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // the connection is returned to the pool either way
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Credentials credentials) throws SQLException {
+        statement.setString(1, credentials.getUsername());
+        statement.setBytes(2, credentials.getSalt());
+        statement.setBytes(3, credentials.getHash());
+    }
+
+    private static boolean isDuplicateKey(SQLException e) {
+        return e.getErrorCode() == SQL_SERVER_DUPLICATE_KEY || e.getErrorCode() == SQL_SERVER_DUPLICATE_INDEX_KEY;
+    }
+
+    static boolean isDeadlock(SQLException e) {
+        for (SQLException cur = e; cur != null; cur = cur.getNextException()) {
+            if (cur.getErrorCode() == SQL_SERVER_DEADLOCK || "40001".equals(cur.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(10, 50) * (long) attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Streams appointments from an open ResultSet, holding a pooled connection until closed.
+     */
+    private static class ResultSetCursor implements Appointment.AppointmentCursor {
+        private final ConnectionManager cm;
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private Boolean hasNext = null;
+
+        private ResultSetCursor(ConnectionManager cm, PreparedStatement statement, ResultSet resultSet) {
+            this.cm = cm;
+            this.statement = statement;
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                try {
+                    hasNext = resultSet.next();
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Error fetching appointments: " + e.getMessage(), e);
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Appointment next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            try {
+                return new Appointment.AppointmentBuilder(resultSet.getInt("AppointmentID"),
+                        resultSet.getDate("Time"), resultSet.getString("PatientUsername"),
+                        resultSet.getString("CaregiverUsername"), resultSet.getString("VaccineName"))
+                        .slot(resultSet.getInt("Slot")).build();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Error fetching appointments: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                resultSet.close();
+                statement.close();
+            } catch (SQLException e) {
+                // the connection is returned to the pool either way
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package scheduler.store;
+
+/**
+ * Helpers for SQL whose text depends on how many rows or values it carries.
+ *
+ * The driver reuses a prepared statement per connection only for identical SQL text, so lists of
+ * placeholders are rounded up to a power of two and the spare slots padded by the caller. That
+ * keeps the number of distinct statements to a handful instead of one per list length.
+ */
+final class SqlText {
+
+    private SqlText() {
+    }
+
+    /**
+     * Returns the smallest power of two that is at least n (and at least 1).
+     */
+    static int bucket(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * Returns group repeated n times, separated by commas, e.g. "(?, ?), (?, ?)".
+     */
+    static String repeat(String group, int n) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            text.append(i == 0 ? "" : ", ").append(group);
+        }
+        return text.toString();
+    }
+}
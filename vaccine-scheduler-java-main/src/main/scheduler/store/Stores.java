@@ -0,0 +1,128 @@
+package scheduler.store;
+
+import scheduler.journal.Journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the store the application runs against.
+ *
+ * The engine is picked with the Store environment variable: "sqlserver" (the default),
+ * "memory" for the embedded engine, which needs no database at all, or "offline" for an
+ * OfflineStore that serves commands from the embedded engine and syncs them to SQL Server
+ * whenever it can be reached (SyncBatchSize deltas per batch, default 100, every SyncIntervalMs,
+ * default 5000, backing off to a minute while the database is unreachable). The database is
+ * wrapped in an InstrumentedStore so every operation shows up in the metrics, and credential
+ * lookups go through a CredentialCache in front of it (CredentialCacheSize entries, default
+ * 10000, 0 to disable; CredentialCacheTtlMs, default 300000; CredentialCacheNegativeTtlMs for
+ * unknown usernames, default 30000).
+ *
+ * If JournalDir is set, every state change is also appended to the write-behind Journal in that
+ * directory (JournalSegmentMb per segment file, default 64; JournalQueueSize events may wait for
+ * the writer, default 65536). The journal is closed, and so flushed, on shutdown.
+ */
+public final class Stores {
+
+    private static volatile SchedulerStore store;
+    private static final List<Runnable> CHANGE_LISTENERS = new CopyOnWriteArrayList<>();
+
+    private Stores() {
+    }
+
+    public static SchedulerStore get() {
+        if (store == null) {
+            synchronized (Stores.class) {
+                if (store == null) {
+                    store = create(System.getenv("Store"));
+                }
+            }
+        }
+        return store;
+    }
+
+    // replaces the configured store, e.g. to run a tool against a fresh MemoryStore
+    public static synchronized void set(SchedulerStore newStore) {
+        store = newStore;
+    }
+
+    /**
+     * Registers a callback for when the store's data is replaced other than by this process's own
+     * commands (an offline store taking over the central database's state after a sync), so
+     * in-memory views of it can reload.
+     */
+    public static void addChangeListener(Runnable listener) {
+        CHANGE_LISTENERS.add(listener);
+    }
+
+    static void notifyChanged() {
+        for (Runnable listener : CHANGE_LISTENERS) {
+            listener.run();
+        }
+    }
+
+    static SchedulerStore create(String name) {
+        String engine = name == null ? "sqlserver" : name.trim().toLowerCase(Locale.ROOT);
+        switch (engine) {
+            case "sqlserver":
+                return cached(journaled(new InstrumentedStore(new SqlServerStore())));
+            case "memory":
+                return cached(journaled(new InstrumentedStore(new MemoryStore())));
+            case "offline":
+                return cached(journaled(offline(new InstrumentedStore(new SqlServerStore()))));
+            default:
+                throw new IllegalArgumentException("Unknown store " + name +
+                        ", expected sqlserver, memory or offline");
+        }
+    }
+
+    // the cache sits outside the instrumentation, so store metrics count real lookups only
+    private static SchedulerStore cached(SchedulerStore store) {
+        int size = intSetting("CredentialCacheSize", 10_000);
+        if (size == 0) {
+            return store;
+        }
+        return new CachingStore(store, new CredentialCache(size,
+                longSetting("CredentialCacheTtlMs", 300_000), longSetting("CredentialCacheNegativeTtlMs", 30_000)));
+    }
+
+    // the central database is instrumented rather than the local store, so store metrics show
+    // what syncing costs
+    private static SchedulerStore offline(SchedulerStore central) {
+        OfflineStore store = new OfflineStore(new MemoryStore(), central, intSetting("SyncBatchSize", 100),
+                longSetting("SyncIntervalMs", 5_000), System.err::println);
+        store.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(store::close, "offline-sync-close"));
+        return store;
+    }
+
+    private static SchedulerStore journaled(SchedulerStore store) {
+        String directory = System.getenv("JournalDir");
+        if (directory == null || directory.trim().isEmpty()) {
+            return store;
+        }
+        Journal journal;
+        try {
+            journal = Journal.open(Paths.get(directory.trim()), intSetting("JournalSegmentMb", 64) * 1024 * 1024,
+                    intSetting("JournalQueueSize", 65_536));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening the journal in " + directory + ": " + e.getMessage(), e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "journal-close"));
+        return new JournalingStore(store, journal);
+    }
+
+    private static int intSetting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static long longSetting(String name, long defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+}
@@ -0,0 +1,142 @@
+package scheduler.util;
+
+import scheduler.metrics.Histogram;
+import scheduler.metrics.Metrics;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+
+/**
+ * Thread-safe password hashing.
+ *
+ * Every thread keeps its own SecretKeyFactory and SecureRandom, so hashing never pays for a
+ * provider lookup and never contends on a shared engine.
+ *
+ * Stored hashes are versioned so the cost can be raised without invalidating existing accounts:
+ *   version 0 (legacy): 2 bytes of PBKDF2WithHmacSHA1 with 10 iterations, zero-padded to 16 bytes
+ *                       by the BINARY(16) column it was stored in
+ *   version 1:          [0x01][iterations, 4 bytes big-endian][16 bytes of PBKDF2WithHmacSHA256]
+ * Because the iteration count is part of a version 1 hash, the HashIterations environment
+ * variable can be changed at any time; needsRehash() tells callers when a stored hash should be
+ * upgraded.
+ */
+public class PasswordHasher {
+
+    public static final int SALT_LENGTH = 16;
+
+    private static final byte VERSION_1 = 1;
+    private static final int VERSION_1_HEADER = 5;
+    private static final int VERSION_1_KEY_BYTES = 16;
+    private static final String VERSION_1_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    private static final String LEGACY_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int LEGACY_ITERATIONS = 10;
+    private static final int LEGACY_KEY_BITS = 16;
+
+    private static final int DEFAULT_ITERATIONS = 10_000;
+
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+    private static final ThreadLocal<SecretKeyFactory> VERSION_1_FACTORY =
+            ThreadLocal.withInitial(() -> factory(VERSION_1_ALGORITHM));
+    private static final ThreadLocal<SecretKeyFactory> LEGACY_FACTORY =
+            ThreadLocal.withInitial(() -> factory(LEGACY_ALGORITHM));
+
+    private static final Histogram DERIVE_TIME = Metrics.histogram("scheduler_hash_seconds");
+
+    private static final PasswordHasher DEFAULT = new PasswordHasher(configuredIterations());
+
+    private final int iterations;
+
+    public PasswordHasher(int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Iteration count must be positive!");
+        }
+        this.iterations = iterations;
+    }
+
+    public static PasswordHasher getInstance() {
+        return DEFAULT;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public byte[] generateSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.get().nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Hashes a password in the current (version 1) format.
+     */
+    public byte[] hash(String password, byte[] salt) {
+        byte[] key = derive(VERSION_1_FACTORY.get(), password, salt, iterations, VERSION_1_KEY_BYTES * 8);
+        return ByteBuffer.allocate(VERSION_1_HEADER + key.length)
+                .put(VERSION_1)
+                .putInt(iterations)
+                .put(key)
+                .array();
+    }
+
+    /**
+     * Checks a password against a stored hash of any supported version.
+     */
+    public boolean verify(String password, byte[] salt, byte[] stored) {
+        if (stored == null) {
+            return false;
+        }
+        if (isVersion1(stored)) {
+            int storedIterations = ByteBuffer.wrap(stored, 1, 4).getInt();
+            byte[] key = derive(VERSION_1_FACTORY.get(), password, salt, storedIterations, VERSION_1_KEY_BYTES * 8);
+            return MessageDigest.isEqual(key, Arrays.copyOfRange(stored, VERSION_1_HEADER, stored.length));
+        }
+        // we need to call Util.trim() to get rid of the paddings of the legacy BINARY(16) column
+        byte[] legacy = derive(LEGACY_FACTORY.get(), password, salt, LEGACY_ITERATIONS, LEGACY_KEY_BITS);
+        return MessageDigest.isEqual(Util.trim(legacy), Util.trim(stored));
+    }
+
+    /**
+     * Returns true if the stored hash uses an older version or a lower cost than this hasher.
+     */
+    public boolean needsRehash(byte[] stored) {
+        return !isVersion1(stored) || ByteBuffer.wrap(stored, 1, 4).getInt() < iterations;
+    }
+
+    private static boolean isVersion1(byte[] stored) {
+        return stored.length == VERSION_1_HEADER + VERSION_1_KEY_BYTES && stored[0] == VERSION_1;
+    }
+
+    private static byte[] derive(SecretKeyFactory factory, String password, byte[] salt, int iterations, int keyBits) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyBits);
+        long start = System.nanoTime();
+        try {
+            return factory.generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+            DERIVE_TIME.recordSince(start);
+        }
+    }
+
+    private static SecretKeyFactory factory(String algorithm) {
+        try {
+            return SecretKeyFactory.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static int configuredIterations() {
+        String value = System.getenv("HashIterations");
+        return value == null ? DEFAULT_ITERATIONS : Integer.parseInt(value.trim());
+    }
+}
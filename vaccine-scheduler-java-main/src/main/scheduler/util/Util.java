@@ -1,41 +1,40 @@
 package scheduler.util;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
-
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[16];
-        random.nextBytes(salt);
-        return salt;
+        return PasswordHasher.getInstance().generateSalt();
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
-        // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
-
-        // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
-        try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
+        // Hash with the current versioned format; see PasswordHasher for the layout
+        return PasswordHasher.getInstance().hash(password, salt);
+    }
+
+    public static boolean verifyHash(String password, byte[] salt, byte[] storedHash) {
+        return PasswordHasher.getInstance().verify(password, salt, storedHash);
+    }
+
+    public static boolean needsRehash(byte[] storedHash) {
+        return PasswordHasher.getInstance().needsRehash(storedHash);
+    }
+
+    public static boolean isStrongPassword(String password) {
+        if (password.length() < 8) {
+            return false;
+        }
+
+        boolean hasUpper = false, hasLower = false, hasDigit = false, hasSpecial = false;
+        for (char c : password.toCharArray()) {
+            if (Character.isUpperCase(c)) hasUpper = true;
+            else if (Character.isLowerCase(c)) hasLower = true;
+            else if (Character.isDigit(c)) hasDigit = true;
+            else if ("!@#?".indexOf(c) >= 0) hasSpecial = true;
         }
-        return hash;
+        return hasUpper && hasLower && hasDigit && hasSpecial;
     }
 
     public static byte[] trim(byte[] bytes)
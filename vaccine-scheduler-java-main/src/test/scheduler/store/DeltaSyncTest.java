@@ -0,0 +1,199 @@
+package scheduler.store;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Conflict resolution of DeltaSync, with a MemoryStore standing in for the central database.
+ */
+class DeltaSyncTest {
+
+    private static final String VACCINE = "pfizer";
+    private static final Date DAY = Date.valueOf(LocalDate.now().plusDays(7));
+
+    private MemoryStore local;
+    private MemoryStore central;
+    private List<String> conflicts;
+    private DeltaSync sync;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        local = new MemoryStore();
+        central = new MemoryStore();
+        for (MemoryStore store : Arrays.asList(local, central)) {
+            store.insertAccount(AccountType.CAREGIVER, credentials("carol", 1));
+            store.insertAccount(AccountType.CAREGIVER, credentials("dave", 1));
+            store.insertAccount(AccountType.PATIENT, credentials("pat", 1));
+            store.insertAccount(AccountType.PATIENT, credentials("sam", 1));
+            store.insertVaccine(VACCINE, 5);
+            store.addAvailability("carol", new TreeSet<>(Collections.singleton(DAY)), Slot.WHOLE_DAY);
+            store.addAvailability("dave", new TreeSet<>(Collections.singleton(DAY)), Slot.WHOLE_DAY);
+        }
+        conflicts = new ArrayList<>();
+        sync = new DeltaSync(local, central, conflicts::add);
+    }
+
+    @Test
+    void usernameTakenCentrallyIsRejected() throws SQLException {
+        Credentials clinic = credentials("alex", 1);
+        Credentials elsewhere = credentials("alex", 2);
+        local.insertAccount(AccountType.PATIENT, clinic);
+        central.insertAccount(AccountType.PATIENT, elsewhere);
+
+        push(Delta.accountCreated(AccountType.PATIENT, clinic));
+
+        assertEquals(1, conflicts.size());
+        assertTrue(conflicts.get(0).contains("username was taken"), conflicts.get(0));
+        assertArrayEquals(elsewhere.getSalt(), central.findCredentials(AccountType.PATIENT, "alex").getSalt());
+    }
+
+    @Test
+    void accountCreatedByAnEarlierSyncIsNotAConflict() throws SQLException {
+        Credentials clinic = credentials("alex", 1);
+        local.insertAccount(AccountType.PATIENT, clinic);
+        central.insertAccount(AccountType.PATIENT, clinic);
+
+        push(Delta.accountCreated(AccountType.PATIENT, clinic));
+
+        assertEquals(Collections.emptyList(), conflicts);
+    }
+
+    @Test
+    void reservationMovesToAnotherCaregiverFreeInTheSlot() throws SQLException {
+        Reservation booked = central.reserve("sam", DAY, 0, VACCINE, "carol");
+        assertTrue(booked.isReserved());
+        Delta reserved = reserveLocally("pat", 0, "carol");
+
+        push(reserved);
+
+        assertEquals(1, conflicts.size());
+        assertTrue(conflicts.get(0).contains("moved to caregiver dave"), conflicts.get(0));
+        Appointment centrally = onlyAppointment(central, "pat");
+        assertEquals("dave", centrally.getCaregiverUsername());
+        assertEquals(0, centrally.getSlot());
+        assertEquals("dave", onlyAppointment(local, "pat").getCaregiverUsername());
+    }
+
+    @Test
+    void reservationWithoutDosesLeftIsRejectedAndCancelledLocally() throws SQLException {
+        assertTrue(central.takeDoses(VACCINE, 5));
+        Delta reserved = reserveLocally("pat", 0, "carol");
+
+        push(reserved);
+
+        assertEquals(1, conflicts.size());
+        assertTrue(conflicts.get(0).contains("no doses left"), conflicts.get(0));
+        assertNull(firstAppointment(central, "pat"));
+        assertNull(firstAppointment(local, "pat"));
+        assertEquals(5, local.availableDoses(VACCINE));
+    }
+
+    @Test
+    void takingDosesThatAreGoneIsRejected() throws SQLException {
+        assertTrue(central.takeDoses(VACCINE, 4));
+        assertTrue(local.takeDoses(VACCINE, 3));
+
+        push(Delta.dosesTaken(VACCINE, 3));
+
+        assertEquals(1, conflicts.size());
+        assertTrue(conflicts.get(0).contains("not enough doses left"), conflicts.get(0));
+        assertEquals(1, central.availableDoses(VACCINE));
+    }
+
+    @Test
+    void resentReservationKeepsItsCentralAppointment() throws SQLException {
+        Delta reserved = reserveLocally("pat", 0, "carol");
+        // the first sync applies the reservation, but its acknowledgement is lost
+        assertThrows(IllegalStateException.class, () -> sync.push(Collections.singletonList(reserved), delta -> {
+            throw new IllegalStateException("connection lost");
+        }));
+        int localId = reserved.getAppointmentId();
+        local.cancelAppointment(localId, "pat");
+        Delta cancelled = Delta.cancelled(localId, reserved.getId(), "pat");
+
+        // a restarted clinic sends both again
+        new DeltaSync(local, central, conflicts::add).push(Arrays.asList(reserved, cancelled), delta -> {
+        });
+
+        assertEquals(Collections.emptyList(), conflicts);
+        assertNull(firstAppointment(central, "pat"));
+        assertEquals(5, central.availableDoses(VACCINE));
+    }
+
+    @Test
+    void resentReservationIsTrackedForCentralCancels() throws SQLException {
+        Delta reserved = reserveLocally("pat", 0, "carol");
+        assertThrows(IllegalStateException.class, () -> sync.push(Collections.singletonList(reserved), delta -> {
+            throw new IllegalStateException("connection lost");
+        }));
+        DeltaSync restarted = new DeltaSync(local, central, conflicts::add);
+        restarted.push(Collections.singletonList(reserved), delta -> {
+        });
+
+        central.cancelCaregiverDay("carol", DAY);
+
+        assertEquals(Collections.singleton(reserved.getAppointmentId()), restarted.findCancelledCentrally());
+    }
+
+    @Test
+    void cancellingAReservationThatNeverReachedTheCentralDatabaseIsRejected() throws SQLException {
+        Delta reserved = reserveLocally("pat", 0, "carol");
+        local.cancelAppointment(reserved.getAppointmentId(), "pat");
+
+        push(Delta.cancelled(reserved.getAppointmentId(), reserved.getId(), "pat"));
+
+        assertEquals(1, conflicts.size());
+        assertTrue(conflicts.get(0).contains("never reached the central database"), conflicts.get(0));
+    }
+
+    private void push(Delta... deltas) throws SQLException {
+        List<Delta> done = new ArrayList<>();
+        sync.push(Arrays.asList(deltas), done::add);
+        assertEquals(Arrays.asList(deltas), done);
+    }
+
+    private Delta reserveLocally(String patient, int slot, String caregiver) throws SQLException {
+        Reservation reservation = local.reserve(patient, DAY, slot, VACCINE, caregiver);
+        assertTrue(reservation.isReserved());
+        assertEquals(caregiver, reservation.getCaregiverUsername());
+        return Delta.reserved(reservation.getAppointmentId(), patient, DAY, reservation.getSlot(), VACCINE,
+                caregiver);
+    }
+
+    private static Appointment onlyAppointment(SchedulerStore store, String patient) throws SQLException {
+        Appointment appointment = firstAppointment(store, patient);
+        assertTrue(appointment != null, "no appointment for " + patient);
+        return appointment;
+    }
+
+    private static Appointment firstAppointment(SchedulerStore store, String patient) throws SQLException {
+        try (Appointment.AppointmentCursor cursor =
+                     store.findAppointments(AccountType.PATIENT, patient, null, 0, 0, 0)) {
+            return cursor.hasNext() ? cursor.next() : null;
+        }
+    }
+
+    private static Credentials credentials(String username, int seed) {
+        byte[] salt = new byte[16];
+        byte[] hash = new byte[16];
+        Arrays.fill(salt, (byte) seed);
+        Arrays.fill(hash, (byte) seed);
+        return new Credentials(username, salt, hash);
+    }
+}